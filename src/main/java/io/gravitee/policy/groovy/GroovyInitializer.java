@@ -19,6 +19,7 @@ import io.gravitee.policy.api.PolicyContext;
 import io.gravitee.policy.api.PolicyContextProvider;
 import io.gravitee.policy.api.PolicyContextProviderAware;
 import io.gravitee.policy.groovy.sandbox.SecuredResolver;
+import io.gravitee.policy.groovy.sandbox.TrustedScriptVerifier;
 import org.springframework.core.env.Environment;
 
 /**
@@ -35,12 +36,15 @@ public class GroovyInitializer implements PolicyContext, PolicyContextProviderAw
         if (classLoaderLegacyMode || !SecuredResolver.isInitialized()) {
             SecuredResolver.initialize(this.environment);
         }
+        // Also needed when the resolver has already been initialized, initializing the verifier again is a no-op.
+        TrustedScriptVerifier.initialize(this.environment);
     }
 
     @Override
     public void onDeactivation() {
         if (classLoaderLegacyMode) {
             SecuredResolver.destroy();
+            TrustedScriptVerifier.destroy();
         }
     }
 
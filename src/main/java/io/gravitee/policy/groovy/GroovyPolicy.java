@@ -16,6 +16,7 @@
 package io.gravitee.policy.groovy;
 
 import static io.gravitee.common.http.HttpStatusCode.INTERNAL_SERVER_ERROR_500;
+import static io.gravitee.common.http.HttpStatusCode.SERVICE_UNAVAILABLE_503;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
@@ -24,6 +25,7 @@ import io.gravitee.gateway.api.buffer.Buffer;
 import io.gravitee.gateway.api.http.HttpHeaderNames;
 import io.gravitee.gateway.api.http.HttpHeaders;
 import io.gravitee.gateway.reactive.api.ExecutionFailure;
+import io.gravitee.gateway.reactive.api.context.ContextAttributes;
 import io.gravitee.gateway.reactive.api.context.HttpExecutionContext;
 import io.gravitee.gateway.reactive.api.context.MessageExecutionContext;
 import io.gravitee.gateway.reactive.api.context.kafka.KafkaExecutionContext;
@@ -35,11 +37,16 @@ import io.gravitee.gateway.reactive.api.policy.kafka.KafkaPolicy;
 import io.gravitee.policy.groovy.PolicyResult.State;
 import io.gravitee.policy.groovy.configuration.GroovyPolicyConfiguration;
 import io.gravitee.policy.groovy.model.GroovyBindings;
+import io.gravitee.policy.groovy.sandbox.CompiledScript;
+import io.gravitee.policy.groovy.sandbox.ScriptCompilationService;
+import io.gravitee.policy.groovy.sandbox.ScriptExecutionRejectedException;
+import io.gravitee.policy.groovy.sandbox.SecuredGroovyShell;
+import io.gravitee.policy.groovy.utils.ConcurrencyLimitReachedException;
+import io.gravitee.policy.groovy.utils.ConcurrencyLimiter;
 import io.gravitee.policy.v3.groovy.GroovyPolicyV3;
 import io.reactivex.rxjava3.core.Completable;
 import io.reactivex.rxjava3.core.Flowable;
 import io.reactivex.rxjava3.core.Maybe;
-import io.reactivex.rxjava3.schedulers.Schedulers;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.common.protocol.Errors;
 
@@ -51,24 +58,68 @@ import org.apache.kafka.common.protocol.Errors;
 public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy {
 
     public static final String SCRIPT_EXECUTION_ERROR_MESSAGE = "An error occurred while executing Groovy script";
+
+    /**
+     * Whether the scripts are verified against the type of the variables they are bound to at compile time, so that the calls
+     * which can be resolved statically are checked once instead of at every execution.
+     */
+    static final String TYPED_SCRIPTS_PROPERTY = "gravitee.policy.groovy.sandbox.typed.scripts";
+
+    /**
+     * Shells verifying the scripts against {@link GroovyBindings#VARIABLE_TYPES}. They are distinct from the shells of the v3
+     * policy, which binds other types to the same variable names.
+     */
+    private static class TypedGroovyShellHolder {
+
+        private static final SecuredGroovyShell INSTANCE = new SecuredGroovyShell(false, GroovyBindings.VARIABLE_TYPES);
+        private static final SecuredGroovyShell STRICT_INSTANCE = new SecuredGroovyShell(true, GroovyBindings.VARIABLE_TYPES);
+    }
+
+    /**
+     * Shells statically compiling the scripts against {@link GroovyBindings#VARIABLE_TYPES}.
+     */
+    private static class StaticGroovyShellHolder {
+
+        private static final SecuredGroovyShell INSTANCE = new SecuredGroovyShell(false, GroovyBindings.VARIABLE_TYPES, true);
+        private static final SecuredGroovyShell STRICT_INSTANCE = new SecuredGroovyShell(true, GroovyBindings.VARIABLE_TYPES, true);
+    }
+
     /**
      * @see GroovyPolicyConfiguration#getScripts()
      */
-    private final Flowable<String> scriptFlowable;
+    private final Flowable<CompiledScript> scriptFlowable;
+
+    private final ConcurrencyLimiter concurrencyLimiter;
 
     public GroovyPolicy(GroovyPolicyConfiguration configuration) {
         super(configuration);
-        scriptFlowable = Flowable.fromIterable(configuration.getScripts());
+        concurrencyLimiter = new ConcurrencyLimiter(configuration.getMaxConcurrentExecutions(), configuration.getMaxQueuedExecutions());
+        scriptFlowable = Flowable.fromIterable(configuration.getScripts().stream().map(this::compiledScript).toList());
 
-        // Precompile all the scripts on a io schedulers to get ready when necessary.
+        // Precompile all the scripts on the compilation pool of the gateway to get ready when necessary.
         scriptFlowable
-            .doOnNext(script -> groovyShell().compile(script))
-            .subscribeOn(Schedulers.io())
-            .doOnError(e -> log.warn("Error while compiling script. Ignoring", e))
-            .onErrorComplete()
+            .flatMapCompletable(script ->
+                ScriptCompilationService.getDefault()
+                    .compile(script, ScriptCompilationService.Priority.DEPLOY)
+                    .doOnError(e -> log.warn("Error while compiling script. Ignoring", e))
+                    .onErrorComplete()
+            )
             .subscribe();
     }
 
+    @Override
+    protected SecuredGroovyShell groovyShell() {
+        if (configuration.isStaticCompilation()) {
+            return configuration.isStrictExecutionTimeout() ? StaticGroovyShellHolder.STRICT_INSTANCE : StaticGroovyShellHolder.INSTANCE;
+        }
+
+        if (!Boolean.getBoolean(TYPED_SCRIPTS_PROPERTY)) {
+            return super.groovyShell();
+        }
+
+        return configuration.isStrictExecutionTimeout() ? TypedGroovyShellHolder.STRICT_INSTANCE : TypedGroovyShellHolder.INSTANCE;
+    }
+
     @Override
     public String id() {
         return "policy-groovy";
@@ -151,17 +202,11 @@ public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy
             .switchIfEmpty(Maybe.just(bodyBuffer));
     }
 
-    private Maybe<Buffer> runContentAwareScript(HttpExecutionContext ctx, Binding binding, String script) {
-        return groovyShell()
-            .evaluateRx(script, binding)
+    private Maybe<Buffer> runContentAwareScript(HttpExecutionContext ctx, Binding binding, CompiledScript script) {
+        return evaluateScript(script, binding, ctx.getAttribute(ContextAttributes.ATTR_API))
             .onErrorResumeNext(e -> {
                 log.error(SCRIPT_EXECUTION_ERROR_MESSAGE, e);
-                return ctx.interruptBodyWith(
-                    new ExecutionFailure(INTERNAL_SERVER_ERROR_500)
-                        .key("GROOVY_EXECUTION_FAILURE")
-                        .message("Internal Server Error")
-                        .cause(e)
-                );
+                return ctx.interruptBodyWith(executionFailure(e));
             })
             .flatMap(content -> {
                 var result = (PolicyResult) binding.getVariable(GroovyBindings.RESULT_VARIABLE_NAME);
@@ -169,6 +214,25 @@ public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy
             });
     }
 
+    private <T> Maybe<T> evaluateScript(CompiledScript script, Binding binding, String api) {
+        return concurrencyLimiter.limit(groovyShell().evaluateRx(script, binding, configuration.getExecutionMode(), api));
+    }
+
+    private ExecutionFailure executionFailure(Throwable e) {
+        if (e instanceof ConcurrencyLimitReachedException) {
+            return new ExecutionFailure(configuration.getConcurrencyLimitStatusCode())
+                .key(configuration.getConcurrencyLimitKey())
+                .message("Too many concurrent script executions")
+                .cause(e);
+        }
+
+        if (e instanceof ScriptExecutionRejectedException) {
+            return new ExecutionFailure(SERVICE_UNAVAILABLE_503).key("GROOVY_EXECUTION_REJECTED").message("Service Unavailable").cause(e);
+        }
+
+        return new ExecutionFailure(INTERNAL_SERVER_ERROR_500).key("GROOVY_EXECUTION_FAILURE").message("Internal Server Error").cause(e);
+    }
+
     private Maybe<Buffer> handleResult(HttpExecutionContext ctx, PolicyResult result, Object content) {
         if (result.getState() == State.FAILURE) {
             return ctx.interruptBodyWith(
@@ -180,17 +244,11 @@ public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy
     }
 
     private Completable runScript(HttpExecutionContext ctx, Binding binding, String script) {
-        return groovyShell()
-            .evaluateRx(script, binding)
+        return evaluateScript(compiledScript(script), binding, ctx.getAttribute(ContextAttributes.ATTR_API))
             .ignoreElement()
             .onErrorResumeNext(e -> {
                 log.error(SCRIPT_EXECUTION_ERROR_MESSAGE, e);
-                return ctx.interruptWith(
-                    new ExecutionFailure(INTERNAL_SERVER_ERROR_500)
-                        .key("GROOVY_EXECUTION_FAILURE")
-                        .message("Internal Server Error")
-                        .cause(e)
-                );
+                return ctx.interruptWith(executionFailure(e));
             })
             .andThen(
                 Completable.defer(() -> {
@@ -228,16 +286,8 @@ public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy
         var script = configuration.getScript();
         var binding = GroovyBindings.bindMessage(ctx, message);
 
-        return groovyShell()
-            .evaluateRx(script, binding)
-            .onErrorResumeNext(e ->
-                ctx.interruptMessageWith(
-                    new ExecutionFailure(INTERNAL_SERVER_ERROR_500)
-                        .key("GROOVY_EXECUTION_FAILURE")
-                        .message("Internal Server Error")
-                        .cause(e)
-                )
-            )
+        return evaluateScript(compiledScript(script), binding, ctx.getAttribute(ContextAttributes.ATTR_API))
+            .onErrorResumeNext(e -> ctx.interruptMessageWith(executionFailure(e)))
             .flatMap(content -> {
                 var result = (PolicyResult) binding.getVariable(GroovyBindings.RESULT_VARIABLE_NAME);
                 return handleResult(ctx, message, result, content);
@@ -297,8 +347,7 @@ public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy
     }
 
     private Completable runKafkaScript(KafkaExecutionContext ctx, Binding binding, String script) {
-        return groovyShell()
-            .evaluateRx(script, binding)
+        return evaluateScript(compiledScript(script), binding, ctx.getAttribute(ContextAttributes.ATTR_API))
             .ignoreElement()
             .onErrorResumeNext(e -> {
                 log.error(SCRIPT_EXECUTION_ERROR_MESSAGE, e);
@@ -319,8 +368,7 @@ public class GroovyPolicy extends GroovyPolicyV3 implements Policy, KafkaPolicy
         var script = configuration.getScript();
         var binding = GroovyBindings.bindKafkaMessage(ctx, message);
 
-        return groovyShell()
-            .evaluateRx(script, binding)
+        return evaluateScript(compiledScript(script), binding, ctx.executionContext().getAttribute(ContextAttributes.ATTR_API))
             .onErrorResumeNext(e -> {
                 log.error("An error occurred while executing Groovy script on Kafka message", e);
                 return ctx.executionContext().interruptWith(Errors.UNKNOWN_SERVER_ERROR).toMaybe();
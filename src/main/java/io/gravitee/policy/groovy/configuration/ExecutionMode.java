@@ -0,0 +1,40 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.configuration;
+
+/**
+ * Defines on which thread a script is executed.
+ *
+ * @author GraviteeSource Team
+ */
+public enum ExecutionMode {
+    /**
+     * The script is executed directly on the calling thread (e.g. the Vert.x event loop), without any thread switch.
+     * Only suitable for short, non-blocking scripts.
+     */
+    INLINE,
+
+    /**
+     * The script is executed on a worker thread and the result is emitted back on the computation scheduler.
+     */
+    OFFLOADED,
+
+    /**
+     * The script is executed inline or offloaded depending on its measured execution time and on whether it calls
+     * blocking operations.
+     */
+    AUTO,
+}
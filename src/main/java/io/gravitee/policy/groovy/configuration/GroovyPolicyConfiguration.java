@@ -34,6 +34,10 @@ import org.apache.commons.lang3.StringUtils;
 @AllArgsConstructor
 public class GroovyPolicyConfiguration implements PolicyConfiguration {
 
+    public static final int DEFAULT_CONCURRENCY_LIMIT_STATUS_CODE = 429;
+
+    public static final String DEFAULT_CONCURRENCY_LIMIT_KEY = "GROOVY_CONCURRENCY_LIMIT_REACHED";
+
     private boolean readContent;
 
     private boolean overrideContent;
@@ -45,6 +49,33 @@ public class GroovyPolicyConfiguration implements PolicyConfiguration {
      */
     private boolean strictExecutionTimeout;
 
+    /**
+     * When {@code true}, scripts are statically compiled and verified against the whitelist once, at compilation, instead of
+     * having every call checked at run time. Scripts using calls which cannot be resolved at compile time are rejected.
+     * Only applies to v4 APIs.
+     */
+    private boolean staticCompilation;
+
+    /**
+     * Defines on which thread the script is executed. Scripts are offloaded to a worker thread when not specified.
+     */
+    private ExecutionMode executionMode;
+
+    /**
+     * Maximum number of concurrent executions of the policy, {@code 0} for no limit.
+     */
+    private int maxConcurrentExecutions;
+
+    /**
+     * Maximum number of executions waiting for a running one to complete when {@link #maxConcurrentExecutions} is reached.
+     * Executions are rejected immediately when the queue is full.
+     */
+    private int maxQueuedExecutions;
+
+    private int concurrencyLimitStatusCode;
+
+    private String concurrencyLimitKey;
+
     private String script;
 
     private String onRequestScript;
@@ -69,6 +100,18 @@ public class GroovyPolicyConfiguration implements PolicyConfiguration {
         return overrideContent || isNotBlank(onRequestContentScript) || isNotBlank(onResponseContentScript);
     }
 
+    public ExecutionMode getExecutionMode() {
+        return executionMode == null ? ExecutionMode.OFFLOADED : executionMode;
+    }
+
+    public int getConcurrencyLimitStatusCode() {
+        return concurrencyLimitStatusCode > 0 ? concurrencyLimitStatusCode : DEFAULT_CONCURRENCY_LIMIT_STATUS_CODE;
+    }
+
+    public String getConcurrencyLimitKey() {
+        return isNotBlank(concurrencyLimitKey) ? concurrencyLimitKey : DEFAULT_CONCURRENCY_LIMIT_KEY;
+    }
+
     /**
      * This getter is used for backward compatibility.
      *
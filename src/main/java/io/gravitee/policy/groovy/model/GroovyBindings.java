@@ -29,6 +29,7 @@ import io.gravitee.policy.groovy.model.http.BindableHttpRequest;
 import io.gravitee.policy.groovy.model.http.BindableHttpResponse;
 import io.gravitee.policy.groovy.model.message.BindableKafkaMessage;
 import io.gravitee.policy.groovy.model.message.BindableMessage;
+import java.util.Map;
 
 /**
  * @author Antoine CORDIER (antoine.cordier at graviteesource.com)
@@ -42,6 +43,22 @@ public class GroovyBindings {
     public static final String CONTEXT_VARIABLE_NAME = "context";
     public static final String RESULT_VARIABLE_NAME = "result";
 
+    /**
+     * Type of the variables bound by this class, which scripts can be verified against at compile time.
+     */
+    public static final Map<String, Class<?>> VARIABLE_TYPES = Map.of(
+        REQUEST_VARIABLE_NAME,
+        BindableHttpRequest.class,
+        RESPONSE_VARIABLE_NAME,
+        BindableHttpResponse.class,
+        MESSAGE_VARIABLE,
+        BindableMessage.class,
+        CONTEXT_VARIABLE_NAME,
+        BindableExecutionContext.class,
+        RESULT_VARIABLE_NAME,
+        PolicyResult.class
+    );
+
     private GroovyBindings() {}
 
     public static Binding bindHttp(HttpExecutionContext ctx) {
@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Exchanger;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Known JDK operations which block the calling thread. Operations are indexed by method name first, so that checking a
+ * method which is not blocking (i.e. almost all of them) costs a single map lookup.
+ *
+ * @author GraviteeSource Team
+ */
+final class BlockingOperations {
+
+    private static final int ANY_ARITY = -1;
+
+    private static final Map<String, List<Operation>> OPERATIONS_BY_NAME = Stream.of(
+        // Groovy's sleep(long) is available on any object, including scripts.
+        instance(Object.class, "sleep", ANY_ARITY),
+        instance(Object.class, "wait", ANY_ARITY),
+        statik(Thread.class, "sleep", ANY_ARITY),
+        instance(Thread.class, "join", ANY_ARITY),
+        statik(LockSupport.class, "park", ANY_ARITY),
+        statik(LockSupport.class, "parkNanos", ANY_ARITY),
+        statik(LockSupport.class, "parkUntil", ANY_ARITY),
+        instance(TimeUnit.class, "sleep", ANY_ARITY),
+        instance(TimeUnit.class, "timedJoin", ANY_ARITY),
+        instance(TimeUnit.class, "timedWait", ANY_ARITY),
+        instance(BlockingQueue.class, "take", 0),
+        instance(BlockingQueue.class, "put", 1),
+        instance(BlockingQueue.class, "poll", 2),
+        instance(BlockingQueue.class, "offer", 3),
+        instance(BlockingDeque.class, "takeFirst", 0),
+        instance(BlockingDeque.class, "takeLast", 0),
+        instance(BlockingDeque.class, "putFirst", 1),
+        instance(BlockingDeque.class, "putLast", 1),
+        instance(BlockingDeque.class, "pollFirst", 2),
+        instance(BlockingDeque.class, "pollLast", 2),
+        instance(BlockingDeque.class, "offerFirst", 3),
+        instance(BlockingDeque.class, "offerLast", 3),
+        instance(Future.class, "get", ANY_ARITY),
+        instance(CompletableFuture.class, "join", 0),
+        instance(CountDownLatch.class, "await", ANY_ARITY),
+        instance(CyclicBarrier.class, "await", ANY_ARITY),
+        instance(Condition.class, "await", ANY_ARITY),
+        instance(Condition.class, "awaitNanos", ANY_ARITY),
+        instance(Condition.class, "awaitUninterruptibly", ANY_ARITY),
+        instance(Condition.class, "awaitUntil", ANY_ARITY),
+        instance(Semaphore.class, "acquire", ANY_ARITY),
+        instance(Semaphore.class, "acquireUninterruptibly", ANY_ARITY),
+        instance(Semaphore.class, "tryAcquire", 2),
+        instance(Semaphore.class, "tryAcquire", 3),
+        instance(Lock.class, "lock", 0),
+        instance(Lock.class, "lockInterruptibly", 0),
+        instance(Lock.class, "tryLock", 2),
+        instance(Exchanger.class, "exchange", ANY_ARITY),
+        instance(ExecutorService.class, "awaitTermination", ANY_ARITY),
+        instance(ExecutorService.class, "invokeAll", ANY_ARITY),
+        instance(ExecutorService.class, "invokeAny", ANY_ARITY),
+        instance(Process.class, "waitFor", ANY_ARITY)
+    ).collect(Collectors.collectingAndThen(Collectors.groupingBy(Operation::name), Map::copyOf));
+
+    private BlockingOperations() {}
+
+    /**
+     * @param receiver the receiver of the call, a {@link Class} for static calls.
+     * @param method the name of the called method.
+     * @param args the arguments of the call.
+     *
+     * @return <code>true</code> if the call is a known blocking operation, <code>false</code> else.
+     */
+    static boolean isBlocking(Object receiver, String method, Object[] args) {
+        List<Operation> operations = OPERATIONS_BY_NAME.get(method);
+
+        if (operations == null || receiver == null) {
+            return false;
+        }
+
+        for (Operation operation : operations) {
+            if (operation.matches(receiver, args.length)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Same as {@link #isBlocking(Object, String, Object[])} for a call resolved at compile time.
+     *
+     * @param receiverClass the static type of the receiver of the call, the class itself for static calls.
+     * @param staticCall whether the method is called on a class rather than on an instance.
+     * @param method the name of the called method.
+     * @param argCount the number of arguments of the call.
+     *
+     * @return <code>true</code> if the call is a known blocking operation, <code>false</code> else.
+     */
+    static boolean isBlocking(Class<?> receiverClass, boolean staticCall, String method, int argCount) {
+        List<Operation> operations = OPERATIONS_BY_NAME.get(method);
+
+        if (operations == null) {
+            return false;
+        }
+
+        for (Operation operation : operations) {
+            if (operation.matches(receiverClass, staticCall, argCount)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static Operation instance(Class<?> type, String name, int arity) {
+        return new Operation(type, name, arity, false);
+    }
+
+    private static Operation statik(Class<?> type, String name, int arity) {
+        return new Operation(type, name, arity, true);
+    }
+
+    private record Operation(Class<?> type, String name, int arity, boolean isStatic) {
+        boolean matches(Object receiver, int argCount) {
+            if (arity != ANY_ARITY && arity != argCount) {
+                return false;
+            }
+
+            if (isStatic) {
+                return receiver instanceof Class<?> clazz && type.isAssignableFrom(clazz);
+            }
+
+            return type.isInstance(receiver);
+        }
+
+        boolean matches(Class<?> receiverClass, boolean staticCall, int argCount) {
+            return (arity == ANY_ARITY || arity == argCount) && isStatic == staticCall && type.isAssignableFrom(receiverClass);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import groovy.lang.GroovySystem;
+import io.gravitee.policy.groovy.utils.Sha256;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+
+/**
+ * A directory storing the classes generated for the scripts, so that a script already compiled by a previous run of the gateway
+ * is not compiled again.
+ * <p/>
+ * An entry is keyed by the script itself and by everything its classes depend on: the variant of the shell which compiled it
+ * (sandbox mode, timeout, ...), the version of the whitelist and the version of Groovy. Gateways sharing the directory with
+ * different whitelists therefore use different entries. An entry which cannot be read or defined (truncated file, bad signature,
+ * invalid bytecode, ...) is ignored and deleted, and the script is compiled again.
+ * <p/>
+ * The entries are loaded without being verified against the whitelist again. Each entry is therefore signed with an HMAC whose
+ * secret is generated in the directory, readable by the gateway user only, and the directory is refused when it can be written by
+ * other users.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+final class BytecodeCache {
+
+    /** Directory to store the compiled scripts into. The compiled scripts are only kept in memory when not set. */
+    static final String DIRECTORY_PROPERTY = "gravitee.policy.groovy.script.cache.directory";
+
+    private static final int MAGIC = 0x47424331;
+    private static final int FORMAT_VERSION = 2;
+    private static final String EXTENSION = ".class-cache";
+    private static final String SECRET_FILE = ".secret";
+    private static final int SECRET_LENGTH = 32;
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final int HMAC_LENGTH = 32;
+    private static final Set<PosixFilePermission> OTHERS_WRITE = Set.of(
+        PosixFilePermission.GROUP_WRITE,
+        PosixFilePermission.OTHERS_WRITE
+    );
+
+    private final Path directory;
+    private final String variant;
+    private final SecretKeySpec secret;
+
+    BytecodeCache(Path directory, String variant, byte[] secret) {
+        this.directory = directory;
+        this.variant = variant;
+        this.secret = new SecretKeySpec(secret, HMAC_ALGORITHM);
+    }
+
+    /**
+     * @param variant describes how the shell compiles the scripts, two shells compiling the same script differently must have
+     * different variants.
+     *
+     * @return the cache configured by {@value #DIRECTORY_PROPERTY}, or <code>null</code> if it is not configured, the directory
+     * cannot be created or it is writable by other users.
+     */
+    @Nullable
+    static BytecodeCache fromSystemProperty(String variant) {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+
+        if (directory == null || directory.isBlank()) {
+            return null;
+        }
+
+        try {
+            Path path = Files.createDirectories(Paths.get(directory), ownerOnly("rwx------"));
+            checkNotWritableByOthers(path);
+            return new BytecodeCache(path, variant, secret(path));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to use [{}] as Groovy compiled script directory, scripts will be compiled on every start", directory, e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the classes stored for the given script, defined by the given class loader, or <code>null</code> if there is no
+     * valid entry for this script.
+     */
+    @Nullable
+    ScriptClassLoader.ScriptClass load(String script, ScriptClassLoader classLoader) {
+        String scriptHash = Sha256.sha256(script);
+        Path file = entryFile(scriptHash);
+        String key = entryKey(scriptHash);
+
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try {
+            Map<String, byte[]> bytecode = new LinkedHashMap<>();
+            String mainClassName = read(Files.readAllBytes(file), key, bytecode);
+
+            return classLoader.define(mainClassName, bytecode);
+        } catch (IOException | LinkageError | RuntimeException e) {
+            log.debug("Ignoring invalid Groovy compiled script [{}]: {}", file, e.toString());
+            delete(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the classes generated for the given script. Failing to store them is not an error, the script will just be
+     * compiled again the next time.
+     */
+    void store(String script, String mainClassName, Map<String, byte[]> bytecode) {
+        String scriptHash = Sha256.sha256(script);
+        Path file = entryFile(scriptHash);
+        String key = entryKey(scriptHash);
+        Path temporaryFile = null;
+
+        try {
+            temporaryFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            Files.write(temporaryFile, write(key, mainClassName, bytecode));
+            // Concurrent readers, even from another gateway sharing the directory, either see the whole entry or no entry.
+            Files.move(temporaryFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to store Groovy compiled script [{}]: {}", file, e.toString());
+
+            if (temporaryFile != null) {
+                delete(temporaryFile);
+            }
+        }
+    }
+
+    /**
+     * The file of an entry depends on its whole key, so that gateways sharing the directory with different whitelists do not
+     * replace each other's entries. Entries compiled with a previous whitelist or Groovy version are left behind.
+     */
+    private Path entryFile(String scriptHash) {
+        return directory.resolve(Sha256.sha256(entryKey(scriptHash)) + EXTENSION);
+    }
+
+    private String entryKey(String scriptHash) {
+        return String.join("|", scriptHash, variant, SecuredResolver.getInstance().getVersion(), GroovySystem.getVersion());
+    }
+
+    private byte[] write(String key, String mainClassName, Map<String, byte[]> bytecode) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(MAGIC);
+        out.writeShort(FORMAT_VERSION);
+        out.writeUTF(key);
+        out.writeUTF(mainClassName);
+        out.writeInt(bytecode.size());
+
+        for (Map.Entry<String, byte[]> entry : bytecode.entrySet()) {
+            out.writeUTF(entry.getKey());
+            out.writeInt(entry.getValue().length);
+            out.write(entry.getValue());
+        }
+
+        out.flush();
+        out.write(hmac(bytes.toByteArray(), bytes.size()));
+
+        return bytes.toByteArray();
+    }
+
+    private String read(byte[] content, String key, Map<String, byte[]> bytecode) throws IOException {
+        if (content.length < HMAC_LENGTH) {
+            throw new IOException("Truncated entry");
+        }
+
+        int length = content.length - HMAC_LENGTH;
+
+        if (!MessageDigest.isEqual(hmac(content, length), Arrays.copyOfRange(content, length, content.length))) {
+            throw new IOException("Bad signature");
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(content, 0, length));
+
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != FORMAT_VERSION) {
+            throw new IOException("Unsupported format");
+        }
+
+        if (!key.equals(in.readUTF())) {
+            // Compiled with another whitelist or Groovy version.
+            throw new IOException("Stale entry");
+        }
+
+        String mainClassName = in.readUTF();
+        int classCount = in.readInt();
+
+        for (int i = 0; i < classCount; i++) {
+            String name = in.readUTF();
+            byte[] code = new byte[in.readInt()];
+            in.readFully(code);
+            bytecode.put(name, code);
+        }
+
+        return mainClassName;
+    }
+
+    private byte[] hmac(byte[] content, int length) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(secret);
+            mac.update(content, 0, length);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            // Every Java platform is required to support HmacSHA256.
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the secret signing the entries of the given directory, generated by the first gateway using it.
+     */
+    private static byte[] secret(Path directory) throws IOException {
+        Path file = directory.resolve(SECRET_FILE);
+
+        if (!Files.exists(file)) {
+            byte[] secret = new byte[SECRET_LENGTH];
+            new SecureRandom().nextBytes(secret);
+
+            Path temporaryFile = Files.createTempFile(directory, SECRET_FILE, ".tmp", ownerOnly("rw-------"));
+            try {
+                Files.write(temporaryFile, secret);
+                // Fails when another gateway has generated the secret meanwhile, it is read below.
+                Files.move(temporaryFile, file);
+            } catch (FileAlreadyExistsException e) {
+                log.debug("Groovy compiled script secret [{}] generated concurrently", file);
+            } finally {
+                delete(temporaryFile);
+            }
+        }
+
+        checkNotWritableByOthers(file);
+        byte[] secret = Files.readAllBytes(file);
+
+        if (secret.length != SECRET_LENGTH) {
+            throw new IOException("Invalid secret " + file);
+        }
+
+        return secret;
+    }
+
+    private static FileAttribute<?>[] ownerOnly(String permissions) {
+        if (!FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return new FileAttribute<?>[0];
+        }
+
+        return new FileAttribute<?>[] { PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions)) };
+    }
+
+    private static void checkNotWritableByOthers(Path path) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(path, PosixFileAttributeView.class);
+
+        if (view != null && view.readAttributes().permissions().stream().anyMatch(OTHERS_WRITE::contains)) {
+            throw new IOException(path + " is writable by other users");
+        }
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.debug("Unable to delete Groovy compiled script [{}]", file, e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import java.lang.ref.WeakReference;
+import org.codehaus.groovy.control.CompilationFailedException;
+
+/**
+ * Handle on a script prepared by a {@link SecuredGroovyShell}.
+ * <p/>
+ * The script key is computed once when the handle is created and the compiled class is remembered by the handle as soon as
+ * it has been resolved, so evaluating a handle neither hashes the script source nor looks up the shell's compiled-script cache.
+ * Handles are meant to be created once (e.g. when a policy is instantiated) and reused for every execution. When the shell
+ * verifies the scripts against the whitelist at compile time, the class is resolved again once the whitelist has been reloaded.
+ * <p/>
+ * The class is only weakly referenced: the cache of the shell alone decides how long it stays loaded. Once it has been evicted
+ * and unloaded, the handle resolves it again through the cache.
+ *
+ * @author GraviteeSource Team
+ */
+public class CompiledScript {
+
+    private final SecuredGroovyShell shell;
+    private final String key;
+    private final String source;
+    private final ExecutionProfile profile;
+    private volatile WeakReference<Class<?>> scriptClass = new WeakReference<>(null);
+    private volatile SecuredResolver verifiedWith;
+
+    CompiledScript(SecuredGroovyShell shell, String key, String source, long inlineThresholdNanos) {
+        this.shell = shell;
+        this.key = key;
+        this.source = source;
+        this.profile = new ExecutionProfile(key, inlineThresholdNanos);
+    }
+
+    /**
+     * Compiles the script if it has not been compiled yet.
+     *
+     * @return this handle.
+     * @throws CompilationFailedException in case the script does not compile.
+     */
+    public CompiledScript compile() throws CompilationFailedException {
+        scriptClass();
+        return this;
+    }
+
+    /**
+     * @return <code>true</code> if the script class has already been resolved by this handle, <code>false</code> else.
+     */
+    public boolean isCompiled() {
+        return scriptClass.get() != null && verifiedWith == shell.verifiedWith();
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    String getKey() {
+        return key;
+    }
+
+    SecuredGroovyShell getShell() {
+        return shell;
+    }
+
+    ExecutionProfile profile() {
+        return profile;
+    }
+
+    Class<?> scriptClass() throws CompilationFailedException {
+        Class<?> resolved = scriptClass.get();
+        SecuredResolver whitelist = shell.verifiedWith();
+
+        if (resolved == null || whitelist != verifiedWith) {
+            resolved = shell.getOrCreate(key, source);
+            verifiedWith = whitelist;
+            scriptClass = new WeakReference<>(resolved);
+
+            if (resolved.isAnnotationPresent(SecuredTypeCheckingExtension.CallsBlockingOperation.class)) {
+                // Statically compiled scripts are not intercepted, their blocking operations are found at compile time.
+                profile.markBlocking();
+            }
+        }
+
+        return resolved;
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import groovy.lang.GString;
+import groovy.lang.GroovyClassLoader;
+import java.lang.invoke.MethodHandle;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the sandbox decisions taken for a single receiver class, indexed by member name then by argument types.
+ * <p/>
+ * Looking up a decision allocates nothing: the name is matched through its cached hash code and the argument types are
+ * compared by identity against the runtime classes of the call arguments, without building any intermediate key.
+ * <p/>
+ * Argument types defined by a script are only weakly referenced, so that a decision attached to a long-lived class
+ * (e.g. {@link String}) never pins the class loader of the script it has been taken for.
+ *
+ * @author GraviteeSource Team
+ */
+final class DecisionTable {
+
+    /**
+     * Maximum number of argument shapes remembered per member name. Past this limit, decisions are still taken but no longer
+     * cached, which bounds the memory a script could consume by calling the same method with many different argument types.
+     */
+    static final int MAX_SHAPES_PER_NAME = 32;
+
+    /**
+     * Maximum number of member names remembered per table. Denials are cached as well, so without this limit a script probing
+     * generated property names (e.g. <code>map."key$i"</code>) could grow the table without bound.
+     */
+    static final int MAX_NAMES = 512;
+
+    private static final Decision[] NO_DECISIONS = {};
+
+    private final ConcurrentHashMap<String, Decision[]> decisionsByName = new ConcurrentHashMap<>();
+
+    /**
+     * @return the decision previously stored for the given name and arguments, or <code>null</code> if none has been stored.
+     */
+    Boolean lookup(String name, Object[] args) {
+        Decision decision = find(name, args);
+        return decision != null ? decision.allowed : null;
+    }
+
+    /**
+     * Same as {@link #lookup(String, Object[])}, returning the whole decision.
+     */
+    Decision find(String name, Object[] args) {
+        Decision[] decisions = decisionsByName.get(name);
+
+        if (decisions != null) {
+            for (Decision decision : decisions) {
+                if (decision.matches(args)) {
+                    return decision;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Same as {@link #lookup(String, Object[])} for a single argument, sparing the caller the allocation of an array.
+     */
+    Boolean lookupSingle(String name, Object arg) {
+        Decision[] decisions = decisionsByName.get(name);
+
+        if (decisions != null) {
+            for (Decision decision : decisions) {
+                if (decision.matches(arg)) {
+                    return decision.allowed;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    void store(String name, Class<?>[] argumentClasses, boolean allowed) {
+        store(name, argumentClasses, allowed, null, false);
+    }
+
+    /**
+     * Stores a decision along with the handle to invoke the allowed method directly, if any.
+     *
+     * @param staticCall whether the handle has been resolved for a call on a class rather than on an instance.
+     * @return the decision, which may not have been remembered if the table is full.
+     */
+    Decision store(String name, Class<?>[] argumentClasses, boolean allowed, MethodHandle handle, boolean staticCall) {
+        Decision decision = new Decision(argumentClasses, allowed, handle, staticCall);
+
+        if (decisionsByName.size() >= MAX_NAMES && !decisionsByName.containsKey(name)) {
+            return decision;
+        }
+
+        decisionsByName.compute(
+            name,
+            (key, decisions) -> {
+                Decision[] alive = decisions == null ? NO_DECISIONS : prune(decisions);
+
+                if (alive.length >= MAX_SHAPES_PER_NAME) {
+                    return alive;
+                }
+
+                Decision[] updated = Arrays.copyOf(alive, alive.length + 1);
+                updated[alive.length] = decision;
+                return updated;
+            }
+        );
+
+        return decision;
+    }
+
+    int size() {
+        return decisionsByName.size();
+    }
+
+    /**
+     * Returns the class used to resolve a call argument.
+     * Note: {@link GString} class will be considered as {@link String} class.
+     */
+    static Class<?> argumentClass(Object arg) {
+        if (arg instanceof GString) {
+            // Groovy String must be considered as String to resolve methods and handle automatic Groovy cast to String.class.
+            return String.class;
+        }
+
+        return arg != null ? arg.getClass() : Object.class;
+    }
+
+    private static Decision[] prune(Decision[] decisions) {
+        int alive = 0;
+
+        for (Decision decision : decisions) {
+            if (!decision.isCollected()) {
+                alive++;
+            }
+        }
+
+        if (alive == decisions.length) {
+            return decisions;
+        }
+
+        Decision[] pruned = new Decision[alive];
+        int i = 0;
+
+        for (Decision decision : decisions) {
+            if (!decision.isCollected()) {
+                pruned[i++] = decision;
+            }
+        }
+
+        return pruned;
+    }
+
+    /**
+     * A decision taken for a given shape of arguments.
+     */
+    static final class Decision {
+
+        /** Either a {@link Class} or a {@link WeakReference} to a class defined by a script. */
+        private final Object[] types;
+        private final Boolean allowed;
+        private final MethodHandle handle;
+        private final boolean staticCall;
+
+        private Decision(Class<?>[] argumentClasses, boolean allowed, MethodHandle handle, boolean staticCall) {
+            this.types = new Object[argumentClasses.length];
+            this.allowed = allowed;
+            this.handle = handle;
+            this.staticCall = staticCall;
+
+            for (int i = 0; i < argumentClasses.length; i++) {
+                Class<?> type = argumentClasses[i];
+                types[i] = type.getClassLoader() instanceof GroovyClassLoader ? new WeakReference<>(type) : type;
+            }
+        }
+
+        boolean isAllowed() {
+            return allowed;
+        }
+
+        /**
+         * @param staticCall whether the method is called on a class rather than on an instance.
+         * @return the handle to invoke the allowed method directly, or <code>null</code> if the call must go through the Groovy
+         * dispatch.
+         */
+        MethodHandle handle(boolean staticCall) {
+            return this.staticCall == staticCall ? handle : null;
+        }
+
+        private boolean matches(Object[] args) {
+            if (args.length != types.length) {
+                return false;
+            }
+
+            for (int i = 0; i < args.length; i++) {
+                if (!matches(types[i], argumentClass(args[i]))) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        private boolean matches(Object arg) {
+            return types.length == 1 && matches(types[0], argumentClass(arg));
+        }
+
+        private static boolean matches(Object expected, Class<?> type) {
+            return expected == type || (expected instanceof WeakReference<?> reference && reference.get() == type);
+        }
+
+        private boolean isCollected() {
+            for (Object type : types) {
+                if (type instanceof WeakReference<?> reference && reference.get() == null) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import groovy.lang.GString;
+import groovy.lang.GroovyObject;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaClassImpl;
+import groovy.lang.MetaMethod;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import org.apache.commons.lang3.ClassUtils;
+import org.codehaus.groovy.reflection.CachedMethod;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+/**
+ * Resolves handles to invoke allowed methods directly, bypassing the Groovy dynamic dispatch once the sandbox has approved a
+ * call.
+ * <p/>
+ * A handle is only resolved when the call is guaranteed to end up in the very same method through the Groovy dispatch: the
+ * call shape must be monomorphic (arguments matching the parameters without any Groovy coercion), and the metaclass of the
+ * receiver must pick this plain Java method rather than a default groovy method, a multimethod or a metaclass customization.
+ * Every other call keeps going through the Groovy dispatch.
+ *
+ * @author GraviteeSource Team
+ */
+final class DirectDispatch {
+
+    /** The type of all the handles: <code>(Object receiver, Object[] args)Object</code>. */
+    static final MethodType INVOKER_TYPE = MethodType.methodType(Object.class, Object.class, Object[].class);
+
+    private DirectDispatch() {}
+
+    /**
+     * @param receiverClass the class of the receiver, or the class itself for a static call.
+     * @param method the allowed method resolved for the call.
+     * @param argumentClasses the classes of the call arguments.
+     * @param staticCall whether the method is called on a class rather than on an instance.
+     * @return the handle to invoke the method directly, of type {@link #INVOKER_TYPE}, or <code>null</code> if the call must go
+     * through the Groovy dispatch.
+     */
+    static MethodHandle resolve(Class<?> receiverClass, Method method, Class<?>[] argumentClasses, boolean staticCall) {
+        int modifiers = method.getModifiers();
+
+        if (
+            method.isVarArgs() ||
+            Modifier.isStatic(modifiers) != staticCall ||
+            !Modifier.isPublic(modifiers) ||
+            !Modifier.isPublic(method.getDeclaringClass().getModifiers()) ||
+            GroovyObject.class.isAssignableFrom(receiverClass) ||
+            !hasExactParameters(method, argumentClasses) ||
+            !isDispatchedByGroovy(receiverClass, method, argumentClasses, staticCall)
+        ) {
+            return null;
+        }
+
+        try {
+            MethodHandle handle = MethodHandles.publicLookup().unreflect(method);
+
+            if (staticCall) {
+                handle = MethodHandles.dropArguments(handle, 0, Object.class);
+            }
+
+            return handle.asSpreader(Object[].class, method.getParameterCount()).asType(INVOKER_TYPE);
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A decision is shared by a {@link String} and a {@link GString} argument, but only the Groovy dispatch converts the latter.
+     * Likewise, a <code>null</code> argument shares the decision of an {@link Object} argument, while the Groovy dispatch
+     * selects the most specific overload for it.
+     *
+     * @return <code>true</code> if the given arguments can be passed to a handle as is.
+     */
+    static boolean accepts(Object[] args) {
+        for (Object arg : args) {
+            if (arg == null || arg instanceof GString) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean hasExactParameters(Method method, Class<?>[] argumentClasses) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+
+        if (parameterTypes.length != argumentClasses.length) {
+            return false;
+        }
+
+        for (int i = 0; i < parameterTypes.length; i++) {
+            Class<?> parameterType = parameterTypes[i];
+
+            if (
+                parameterType.isPrimitive()
+                    ? ClassUtils.primitiveToWrapper(parameterType) != argumentClasses[i]
+                    : !parameterType.isAssignableFrom(argumentClasses[i])
+            ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isDispatchedByGroovy(Class<?> receiverClass, Method method, Class<?>[] argumentClasses, boolean staticCall) {
+        MetaClass metaClass = InvokerHelper.getMetaClass(receiverClass);
+
+        if (metaClass.getClass() != MetaClassImpl.class) {
+            // e.g. an ExpandoMetaClass, whose methods can change at any time.
+            return false;
+        }
+
+        MetaMethod metaMethod = staticCall
+            ? metaClass.getStaticMetaMethod(method.getName(), argumentClasses)
+            : metaClass.getMetaMethod(method.getName(), argumentClasses);
+
+        if (!(metaMethod instanceof CachedMethod) || !Arrays.equals(metaMethod.getNativeParameterTypes(), method.getParameterTypes())) {
+            return false;
+        }
+
+        // An instance method with the same signature is an override reached anyway through virtual dispatch, a static one is not.
+        return !staticCall || metaMethod.getDeclaringClass().getTheClass() == method.getDeclaringClass();
+    }
+}
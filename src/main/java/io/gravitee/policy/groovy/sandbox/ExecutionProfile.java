@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Execution-time profile of a script, used to decide whether the script is cheap enough to be executed inline.
+ * <p/>
+ * Execution times are recorded in a histogram of power-of-two buckets. Every {@value #WINDOW_SIZE} executions, the
+ * 99th percentile is estimated from the histogram and the decision is revised with hysteresis: an inline script is
+ * offloaded as soon as its p99 exceeds the inline threshold, while an offloaded script only goes back inline once its
+ * p99 falls below half of the threshold. The histogram is then halved so that recent executions weigh more than older
+ * ones.
+ * <p/>
+ * Besides, a script is offloaded immediately when a single execution exceeds {@value #DEMOTION_FACTOR} times the
+ * threshold, and definitively when it is seen calling a known blocking operation.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+final class ExecutionProfile {
+
+    static final int WINDOW_SIZE = 128;
+    static final int DEMOTION_FACTOR = 10;
+
+    private static final int BUCKETS = 64;
+
+    private final String name;
+    private final long inlineThresholdNanos;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+    private final AtomicLong samples = new AtomicLong();
+    private volatile boolean inline;
+    private volatile boolean blocking;
+    private volatile long p99Nanos = -1;
+
+    ExecutionProfile(String name, long inlineThresholdNanos) {
+        this.name = name;
+        this.inlineThresholdNanos = inlineThresholdNanos;
+    }
+
+    /**
+     * @return <code>true</code> if the script is currently considered cheap enough to be executed inline.
+     */
+    boolean isInline() {
+        return inline;
+    }
+
+    /**
+     * @return <code>true</code> if the script has been seen calling a known blocking operation.
+     */
+    boolean isBlocking() {
+        return blocking;
+    }
+
+    /**
+     * @return the last estimated 99th percentile of the execution time in nanoseconds, or <code>-1</code> if not estimated yet.
+     */
+    long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    void record(long elapsedNanos) {
+        histogram.incrementAndGet(bucket(elapsedNanos));
+
+        if (inline && elapsedNanos > inlineThresholdNanos * DEMOTION_FACTOR) {
+            inline = false;
+            log.debug("Script [{}] took {}ns, offloading it", name, elapsedNanos);
+        }
+
+        if (samples.incrementAndGet() % WINDOW_SIZE == 0) {
+            revise();
+        }
+    }
+
+    void markBlocking() {
+        if (!blocking) {
+            blocking = true;
+            inline = false;
+            log.info("Script [{}] calls a blocking operation, it will not be executed inline anymore", name);
+        }
+    }
+
+    private void revise() {
+        long p99 = estimateP99();
+        p99Nanos = p99;
+
+        if (blocking) {
+            inline = false;
+        } else if (inline && p99 > inlineThresholdNanos) {
+            inline = false;
+            log.debug("Script [{}] p99 is {}ns, offloading it", name, p99);
+        } else if (!inline && p99 <= inlineThresholdNanos / 2) {
+            inline = true;
+            log.debug("Script [{}] p99 is {}ns, executing it inline", name, p99);
+        }
+
+        // Halve the histogram so that the next estimation gives more weight to recent executions.
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, histogram.get(i) >> 1);
+        }
+    }
+
+    private long estimateP99() {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += histogram.get(i);
+        }
+
+        long target = total - total / 100;
+        long cumulated = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulated += histogram.get(i);
+            if (cumulated >= target) {
+                return upperBound(i);
+            }
+        }
+
+        return upperBound(BUCKETS - 1);
+    }
+
+    private static int bucket(long elapsedNanos) {
+        return 63 - Long.numberOfLeadingZeros(Math.max(elapsedNanos, 1L));
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket >= 62 ? Long.MAX_VALUE : (1L << (bucket + 1)) - 1;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tenant of the {@link ScriptExecutionPool}, typically an API. Script evaluations are queued per tenant and tenants are
+ * served in turn, each one getting up to <code>weight</code> consecutive evaluations per round.
+ *
+ * @author GraviteeSource Team
+ */
+public final class ExecutionTenant {
+
+    private final String id;
+    private final int weight;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    ExecutionTenant(String id, int weight) {
+        this.id = id;
+        this.weight = weight;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return the number of evaluations of this tenant waiting to be started.
+     */
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    /**
+     * @return the number of evaluations of this tenant currently running.
+     */
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    void submitted() {
+        queued.incrementAndGet();
+    }
+
+    void dropped() {
+        queued.decrementAndGet();
+    }
+
+    void started() {
+        queued.decrementAndGet();
+        inFlight.incrementAndGet();
+    }
+
+    void finished() {
+        inFlight.decrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import java.util.AbstractQueue;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded work queue of the {@link ScriptExecutionPool} which serves the {@link ExecutionTenant}s in weighted round robin
+ * (i.e. deficit round robin where each evaluation costs one): each tenant owns a FIFO lane, and the lanes having waiting
+ * evaluations are served in turn, up to the tenant's weight per round. A tenant flooding the pool therefore only delays
+ * its own evaluations, the other tenants keep being served at their share.
+ * <p/>
+ * The capacity is shared the same way: when the queue is full, an evaluation of a tenant having fewer waiting evaluations than
+ * the largest lane takes the place of the latest evaluation of this lane, which is {@link ScriptExecutionPool.ScriptTask#reject()
+ * rejected}. A tenant flooding the pool can fill the queue while it is alone, but cannot keep the other tenants out of it.
+ * <p/>
+ * Lanes only exist while they have waiting evaluations. All the operations are guarded by a single lock, like
+ * {@link java.util.concurrent.ArrayBlockingQueue}.
+ *
+ * @author GraviteeSource Team
+ */
+final class FairShareQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final int capacity;
+    private final ExecutionTenant defaultTenant;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Map<ExecutionTenant, Lane> lanes = new IdentityHashMap<>();
+    private final ArrayDeque<Lane> schedule = new ArrayDeque<>();
+    private int count;
+
+    FairShareQueue(int capacity, ExecutionTenant defaultTenant) {
+        this.capacity = capacity;
+        this.defaultTenant = defaultTenant;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        Objects.requireNonNull(task);
+        ScriptExecutionPool.ScriptTask evicted = null;
+        lock.lock();
+        try {
+            if (count == capacity) {
+                evicted = evictFor(tenantOf(task));
+                if (evicted == null) {
+                    return false;
+                }
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+            // Outside of the lock, rejecting the evaluation notifies its subscriber.
+            if (evicted != null) {
+                evicted.reject();
+            }
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        Objects.requireNonNull(task);
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                if (nanos <= 0L) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        Objects.requireNonNull(task);
+        lock.lockInterruptibly();
+        try {
+            while (count == capacity) {
+                notFull.await();
+            }
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0L) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            Lane lane = schedule.peekFirst();
+            return lane == null ? null : lane.tasks.peekFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            for (Lane lane : schedule) {
+                if (lane.tasks.remove(task)) {
+                    count--;
+                    if (lane.tasks.isEmpty()) {
+                        schedule.remove(lane);
+                        lanes.remove(lane.tenant);
+                    }
+                    notFull.signal();
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection) {
+        return drainTo(collection, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> collection, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (count > 0 && drained < maxElements) {
+                collection.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return an iterator over a snapshot of the waiting evaluations, in the order they would be served if no evaluation
+     * was added. The iterator does not support removal.
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            List<Runnable> snapshot = new ArrayList<>(count);
+            schedule.forEach(lane -> snapshot.addAll(lane.tasks));
+            return Collections.unmodifiableList(snapshot).iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ExecutionTenant tenantOf(Runnable task) {
+        return task instanceof ScriptExecutionPool.ScriptTask scriptTask ? scriptTask.tenant() : defaultTenant;
+    }
+
+    /**
+     * Removes the latest evaluation of the largest lane, if the given tenant has fewer waiting evaluations than this lane.
+     *
+     * @return the removed evaluation, or <code>null</code> if the tenant already has its share of the queue.
+     */
+    private ScriptExecutionPool.ScriptTask evictFor(ExecutionTenant tenant) {
+        Lane own = lanes.get(tenant);
+        int ownSize = own == null ? 0 : own.tasks.size();
+        Lane largest = null;
+
+        for (Lane lane : schedule) {
+            if (largest == null || lane.tasks.size() > largest.tasks.size()) {
+                largest = lane;
+            }
+        }
+
+        if (largest == null || largest.tasks.size() <= ownSize + 1 || !(largest.tasks.peekLast() instanceof ScriptExecutionPool.ScriptTask)) {
+            return null;
+        }
+
+        count--;
+        return (ScriptExecutionPool.ScriptTask) largest.tasks.pollLast();
+    }
+
+    private void enqueue(Runnable task) {
+        ExecutionTenant tenant = tenantOf(task);
+        Lane lane = lanes.get(tenant);
+
+        if (lane == null) {
+            lane = new Lane(tenant);
+            lanes.put(tenant, lane);
+            schedule.addLast(lane);
+        }
+
+        lane.tasks.addLast(task);
+        count++;
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        Lane lane = schedule.peekFirst();
+        Runnable task = lane.tasks.pollFirst();
+        count--;
+
+        if (lane.tasks.isEmpty()) {
+            schedule.pollFirst();
+            lanes.remove(lane.tenant);
+        } else if (++lane.served >= lane.tenant.getWeight()) {
+            // The tenant has consumed its share for this round, move it to the end of the schedule.
+            lane.served = 0;
+            schedule.addLast(schedule.pollFirst());
+        }
+
+        notFull.signal();
+        return task;
+    }
+
+    private static final class Lane {
+
+        private final ExecutionTenant tenant;
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private int served;
+
+        private Lane(ExecutionTenant tenant) {
+            this.tenant = tenant;
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.GroovyCodeSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.codehaus.groovy.control.CompilationUnit;
+import org.codehaus.groovy.control.CompilerConfiguration;
+import org.codehaus.groovy.control.Phases;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.runtime.InvokerHelper;
+import org.springframework.lang.Nullable;
+
+/**
+ * Compiles the scripts of a {@link SecuredGroovyShell}.
+ * <p/>
+ * Unlike {@link GroovyClassLoader#parseClass(GroovyCodeSource)}, the compiled classes are neither cached nor registered in this
+ * class loader: each script is defined by its own child loader, only referenced by the classes of the script, so that the
+ * classes can be unloaded once the script is evicted from the cache of the shell and {@link ScriptClass#unload() unloaded}. The
+ * size of the bytecode generated for each script is measured so that the cache can be bounded by the memory the scripts use.
+ *
+ * @author GraviteeSource Team
+ */
+final class ScriptClassLoader extends GroovyClassLoader {
+
+    /**
+     * Rough estimate of the metaspace used by a loaded class in addition to its bytecode (class metadata, constant pool cache,
+     * method counters, ...), in bytes.
+     */
+    static final int CLASS_OVERHEAD_BYTES = 4096;
+
+    private final CompilerConfiguration configuration;
+
+    ScriptClassLoader(ClassLoader parent, CompilerConfiguration configuration) {
+        super(parent, configuration);
+        this.configuration = configuration;
+    }
+
+    /**
+     * @param codeSource the script to compile.
+     *
+     * @return the class of the script, along with the size of the classes generated for it (the script class itself, its
+     * closures and the classes it declares).
+     *
+     * @throws CompilationFailedException in case the script does not compile.
+     */
+    ScriptClass compile(GroovyCodeSource codeSource) throws CompilationFailedException {
+        return compile(codeSource, null);
+    }
+
+    /**
+     * Same as {@link #compile(GroovyCodeSource)}, also collecting the generated bytecode so that the script can be
+     * {@link #define(String, Map) defined} again without being compiled.
+     *
+     * @param bytecode the map to put the bytecode of each generated class into, by class name, or <code>null</code>.
+     */
+    ScriptClass compile(GroovyCodeSource codeSource, @Nullable Map<String, byte[]> bytecode) throws CompilationFailedException {
+        CompilationUnit unit = createCompilationUnit(configuration, codeSource.getCodeSource());
+        SourceUnit source = unit.addSource(codeSource.getName(), codeSource.getScriptText());
+        SizingCollector collector = new SizingCollector(new InnerLoader(this), unit, source, bytecode);
+
+        unit.setClassgenCallback(collector);
+        unit.compile(Phases.CLASS_GENERATION);
+
+        return scriptClass(source.getAST().getMainClassName(), collector.classes, collector.bytecodeSize, codeSource.getName());
+    }
+
+    /**
+     * Defines the classes of a script previously compiled by {@link #compile(GroovyCodeSource, Map)}.
+     *
+     * @param mainClassName the name of the class of the script.
+     * @param bytecode the bytecode of each class generated for the script, by class name.
+     *
+     * @return the class of the script, along with the size of its classes.
+     *
+     * @throws LinkageError in case the bytecode is not valid.
+     */
+    ScriptClass define(String mainClassName, Map<String, byte[]> bytecode) {
+        StoredScriptLoader loader = new StoredScriptLoader(this, bytecode);
+        List<Class<?>> classes = new ArrayList<>(bytecode.size());
+        int bytecodeSize = 0;
+
+        // Classes reference each other (e.g. a script and its closures), they are defined on demand in any order.
+        for (Map.Entry<String, byte[]> entry : bytecode.entrySet()) {
+            classes.add(loader.define(entry.getKey()));
+            bytecodeSize += entry.getValue().length;
+        }
+
+        return scriptClass(mainClassName, classes, bytecodeSize, mainClassName);
+    }
+
+    private static ScriptClass scriptClass(String mainClassName, List<Class<?>> classes, int bytecodeSize, String scriptName) {
+        Class<?> scriptClass = null;
+
+        for (Class<?> loadedClass : classes) {
+            if (scriptClass == null || loadedClass.getName().equals(mainClassName)) {
+                scriptClass = loadedClass;
+            }
+        }
+
+        if (scriptClass == null) {
+            throw new IllegalStateException("No class has been generated for script " + scriptName);
+        }
+
+        return new ScriptClass(scriptClass, List.copyOf(classes), bytecodeSize);
+    }
+
+    /**
+     * A compiled script.
+     *
+     * @param scriptClass the class of the script.
+     * @param classes all the classes generated for the script: the script class itself, its closures and the classes it declares.
+     * @param bytecodeSize the total size of the bytecode generated for the script, in bytes.
+     */
+    record ScriptClass(Class<?> scriptClass, List<Class<?>> classes, int bytecodeSize) {
+        /**
+         * @return the estimated memory used by the loaded classes of the script, in bytes.
+         */
+        int weight() {
+            return bytecodeSize + classes.size() * CLASS_OVERHEAD_BYTES;
+        }
+
+        /**
+         * Removes the classes of the script from the Groovy runtime registries (meta classes, class infos, bean introspection
+         * caches), which would otherwise keep them reachable once the script is no longer used.
+         */
+        void unload() {
+            for (Class<?> scriptClass : classes) {
+                InvokerHelper.removeClass(scriptClass);
+            }
+        }
+    }
+
+    private static class SizingCollector extends ClassCollector {
+
+        private final List<Class<?>> classes = new ArrayList<>();
+        private final Map<String, byte[]> bytecode;
+        private int bytecodeSize;
+
+        private SizingCollector(InnerLoader loader, CompilationUnit unit, SourceUnit source, @Nullable Map<String, byte[]> bytecode) {
+            super(loader, unit, source);
+            this.bytecode = bytecode;
+        }
+
+        @Override
+        protected Class createClass(byte[] code, ClassNode classNode) {
+            Class<?> definedClass = super.createClass(code, classNode);
+            classes.add(definedClass);
+            bytecodeSize += code.length;
+
+            if (bytecode != null) {
+                bytecode.put(definedClass.getName(), code);
+            }
+
+            return definedClass;
+        }
+    }
+
+    /**
+     * Defines the classes of a script from their bytecode. A class is defined the first time it is loaded, whether it is
+     * explicitly {@link #define(String) defined} or referenced by another class of the script.
+     */
+    static class StoredScriptLoader extends InnerLoader {
+
+        private final Map<String, byte[]> bytecode;
+
+        private StoredScriptLoader(GroovyClassLoader parent, Map<String, byte[]> bytecode) {
+            super(parent);
+            this.bytecode = bytecode;
+        }
+
+        private Class<?> define(String name) {
+            try {
+                return loadClass(name, false, true, false);
+            } catch (ClassNotFoundException e) {
+                // Cannot happen for a class of the script, its bytecode is known.
+                throw new NoClassDefFoundError(name);
+            }
+        }
+
+        @Override
+        public Class loadClass(String name, boolean lookupScriptFiles, boolean preferClassOverScript, boolean resolve)
+            throws ClassNotFoundException, CompilationFailedException {
+            byte[] code = bytecode.get(name);
+
+            if (code == null) {
+                return super.loadClass(name, lookupScriptFiles, preferClassOverScript, resolve);
+            }
+
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> loadedClass = findLoadedClass(name);
+                // Not defineClass(String, byte[]), which an inner loader delegates to the shared loader of the shell.
+                return loadedClass != null ? loadedClass : defineClass(name, code, 0, code.length);
+            }
+        }
+    }
+}
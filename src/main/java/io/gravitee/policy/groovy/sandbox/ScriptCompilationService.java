@@ -0,0 +1,250 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import io.reactivex.rxjava3.core.Completable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool compiling the scripts of all the policies of the gateway, so that deploying many APIs at once does not start as many
+ * concurrent compilations.
+ * <p/>
+ * The compilations are run by a fixed number of threads, in the following order:
+ * <ul>
+ *     <li>the scripts needed by a request, see {@link Priority#REQUEST}. A script waiting to be precompiled is moved ahead of
+ *     the queue as soon as a request needs it.</li>
+ *     <li>the scripts precompiled when a policy is deployed, see {@link Priority#DEPLOY}, in the order they have been submitted.</li>
+ * </ul>
+ * A script submitted while the same script is already waiting or being compiled by the same shell, e.g. by two policies sharing
+ * a script, is not compiled twice: both wait for the same compilation.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public class ScriptCompilationService {
+
+    /** Number of threads compiling scripts, defaults to the number of processors. */
+    static final String POOL_SIZE_PROPERTY = "gravitee.policy.groovy.script.compiler.pool.size";
+
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<CompilationKey, CompilationTask> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final LongAdder compiled = new LongAdder();
+    private final LongAdder deduplicated = new LongAdder();
+    private final LongAdder promoted = new LongAdder();
+
+    public ScriptCompilationService(int poolSize) {
+        // Unbounded: the scripts of the deployed policies must all be compiled, only the number of threads is bounded.
+        this.executor = new ThreadPoolExecutor(
+            poolSize,
+            poolSize,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new PriorityBlockingQueue<>(),
+            new CompilerThreadFactory()
+        );
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @return the service shared by all the shells of the gateway, sized according to the system properties.
+     */
+    public static ScriptCompilationService getDefault() {
+        return DefaultServiceHolder.INSTANCE;
+    }
+
+    static int resolvePoolSize() {
+        return Math.max(1, Integer.getInteger(POOL_SIZE_PROPERTY, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Compiles the given script when subscribed, unless it is already compiled.
+     *
+     * @param script the script to compile.
+     * @param priority the priority of the compilation. A compilation already waiting with a lower priority is raised to this one.
+     *
+     * @return a {@link Completable} completing once the script is compiled, or failing with the compilation error.
+     */
+    public Completable compile(CompiledScript script, Priority priority) {
+        return Completable.defer(() -> {
+            if (script.isCompiled()) {
+                return Completable.complete();
+            }
+
+            // The class has been put in the cache of the shell by the shared compilation, the handle resolves it from there.
+            return Completable.fromCompletionStage(submit(script, priority)).andThen(Completable.fromAction(script::compile));
+        });
+    }
+
+    private CompletableFuture<Void> submit(CompiledScript script, Priority priority) {
+        CompilationKey key = new CompilationKey(script.getShell(), script.getKey());
+        CompilationTask created = new CompilationTask(key, script, priority, sequence.incrementAndGet());
+        CompilationTask task = inFlight.putIfAbsent(key, created);
+
+        if (task == null) {
+            executor.execute(created);
+            return created.future;
+        }
+
+        deduplicated.increment();
+
+        if (priority.compareTo(task.priority) < 0) {
+            promote(task, priority);
+        }
+
+        return task.future;
+    }
+
+    /**
+     * Moves a waiting compilation ahead of the queue. The priority of a task can only change while it is out of the queue, and
+     * nothing has to be done if it has already been taken by a thread.
+     */
+    private void promote(CompilationTask task, Priority priority) {
+        synchronized (task) {
+            if (priority.compareTo(task.priority) < 0 && executor.remove(task)) {
+                task.priority = priority;
+                promoted.increment();
+                executor.execute(task);
+            }
+        }
+    }
+
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     * @return the number of compilations currently running.
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * @return the number of compilations currently waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of compilations which have been run, successfully or not.
+     */
+    public long getCompiledCount() {
+        return compiled.sum();
+    }
+
+    /**
+     * @return the number of submitted scripts which have joined a compilation of the same script already waiting or running.
+     */
+    public long getDeduplicatedCount() {
+        return deduplicated.sum();
+    }
+
+    /**
+     * @return the number of waiting compilations which have been moved ahead of the queue because a request needed them.
+     */
+    public long getPromotedCount() {
+        return promoted.sum();
+    }
+
+    /**
+     * Priority of a compilation, from the most to the least urgent.
+     */
+    public enum Priority {
+        /** The script is needed by a request which waits for it to be compiled. */
+        REQUEST,
+        /** The script is precompiled so that it is ready when the first request needs it. */
+        DEPLOY,
+    }
+
+    /**
+     * The same script compiles to the same class in a given shell, whatever the policy it comes from.
+     */
+    private record CompilationKey(SecuredGroovyShell shell, String scriptKey) {}
+
+    private final class CompilationTask implements Runnable, Comparable<CompilationTask> {
+
+        private final CompilationKey key;
+        private final CompiledScript script;
+        private final long sequence;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private volatile Priority priority;
+
+        private CompilationTask(CompilationKey key, CompiledScript script, Priority priority, long sequence) {
+            this.key = key;
+            this.script = script;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            compiled.increment();
+
+            try {
+                script.compile();
+                future.complete(null);
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            } finally {
+                // Removed once completed, so that a script submitted meanwhile joins the completed compilation.
+                inFlight.remove(key, this);
+            }
+        }
+
+        @Override
+        public int compareTo(CompilationTask other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static class DefaultServiceHolder {
+
+        private static final ScriptCompilationService INSTANCE = create();
+
+        private static ScriptCompilationService create() {
+            int poolSize = resolvePoolSize();
+            log.debug("Groovy script compilation pool created with {} thread(s)", poolSize);
+            return new ScriptCompilationService(poolSize);
+        }
+    }
+
+    private static class CompilerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "gio-groovy-compiler-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.functions.Cancellable;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool dedicated to the evaluation of offloaded scripts, backed by one of the following {@link Backend}s:
+ * <ul>
+ *     <li>{@link Backend#POOL}: a fixed number of threads and a bounded queue. Idle threads are released after {@value #KEEP_ALIVE_SECONDS} seconds.</li>
+ *     <li>{@link Backend#VIRTUAL}: a new virtual thread per evaluation, with at most <code>poolSize + queueSize</code> evaluations in flight.
+ *     Requires Java 21, the pool falls back to {@link Backend#POOL} otherwise.</li>
+ *     <li>{@link Backend#IO}: RxJava's unbounded io scheduler.</li>
+ * </ul>
+ * When the bounded backends are exhausted, evaluations are rejected immediately with a {@link ScriptExecutionRejectedException}
+ * instead of piling up.
+ * <p/>
+ * Evaluations are submitted on behalf of an {@link ExecutionTenant} (typically an API) whose waiting and running evaluations
+ * are counted. With the {@link Backend#POOL} backend, the queue is shared fairly between the tenants according to their
+ * weight, see {@link FairShareQueue}.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public class ScriptExecutionPool {
+
+    /** Number of threads evaluating scripts, defaults to twice the number of processors with a minimum of {@value #POOL_SIZE_MIN_DEFAULT}. */
+    static final String POOL_SIZE_PROPERTY = "gravitee.policy.groovy.script.executor.pool.size";
+
+    /** Maximum number of evaluations waiting for a thread. */
+    static final String QUEUE_SIZE_PROPERTY = "gravitee.policy.groovy.script.executor.queue.size";
+
+    /** Backend evaluating the scripts: <code>pool</code> (default), <code>virtual</code> or <code>io</code>. */
+    static final String BACKEND_PROPERTY = "gravitee.policy.groovy.script.executor.backend";
+
+    /** Comma-separated weights of the tenants, e.g. <code>api-1=4,api-2=2</code>. Tenants not listed have a weight of 1. */
+    static final String TENANT_WEIGHTS_PROPERTY = "gravitee.policy.groovy.script.executor.tenant.weights";
+
+    /** Tenant of the evaluations submitted without tenant. */
+    public static final String DEFAULT_TENANT = "default";
+
+    static final int POOL_SIZE_MIN_DEFAULT = 8;
+    static final int QUEUE_SIZE_DEFAULT = 1024;
+
+    private static final long KEEP_ALIVE_SECONDS = 60L;
+
+    private final Backend backend;
+    private final ExecutorService executor;
+    private final Semaphore inFlightPermits;
+    private final int poolSize;
+    private final int queueCapacity;
+    private final Map<String, Integer> tenantWeights;
+    // Weakly referenced: a tenant is only kept while its evaluations are waiting or running (they reference it) or while it is
+    // used, so that the tenants of undeployed APIs do not pile up. A tenant without evaluations has nothing worth keeping.
+    private final Cache<String, ExecutionTenant> tenants = CacheBuilder.newBuilder().weakValues().build();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder waitTimeNanos = new LongAdder();
+    private final LongAccumulator maxWaitTimeNanos = new LongAccumulator(Long::max, 0L);
+
+    public ScriptExecutionPool(Backend backend, int poolSize, int queueSize) {
+        this(backend, poolSize, queueSize, Map.of());
+    }
+
+    public ScriptExecutionPool(Backend backend, int poolSize, int queueSize, Map<String, Integer> tenantWeights) {
+        ExecutorService virtualExecutor = backend == Backend.VIRTUAL ? newVirtualThreadPerTaskExecutor() : null;
+
+        this.backend = backend == Backend.VIRTUAL && virtualExecutor == null ? Backend.POOL : backend;
+        this.poolSize = poolSize;
+        this.queueCapacity = queueSize;
+        this.tenantWeights = Map.copyOf(tenantWeights);
+
+        switch (this.backend) {
+            case VIRTUAL -> {
+                this.executor = virtualExecutor;
+                this.inFlightPermits = new Semaphore(poolSize + queueSize);
+            }
+            case IO -> {
+                this.executor = null;
+                this.inFlightPermits = null;
+            }
+            default -> {
+                ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+                    poolSize,
+                    poolSize,
+                    KEEP_ALIVE_SECONDS,
+                    TimeUnit.SECONDS,
+                    new FairShareQueue(queueSize, getTenant(DEFAULT_TENANT)),
+                    new ScriptThreadFactory()
+                );
+                threadPoolExecutor.allowCoreThreadTimeOut(true);
+                this.executor = threadPoolExecutor;
+                this.inFlightPermits = null;
+            }
+        }
+    }
+
+    /**
+     * @return the pool shared by all the shells of the gateway, sized according to the system properties.
+     */
+    public static ScriptExecutionPool getDefault() {
+        return DefaultPoolHolder.INSTANCE;
+    }
+
+    static int resolvePoolSize() {
+        int defaultSize = Math.max(POOL_SIZE_MIN_DEFAULT, 2 * Runtime.getRuntime().availableProcessors());
+        return Math.max(1, Integer.getInteger(POOL_SIZE_PROPERTY, defaultSize));
+    }
+
+    static int resolveQueueSize() {
+        return Math.max(1, Integer.getInteger(QUEUE_SIZE_PROPERTY, QUEUE_SIZE_DEFAULT));
+    }
+
+    static Backend resolveBackend() {
+        String value = System.getProperty(BACKEND_PROPERTY);
+
+        if (value == null || value.isBlank()) {
+            return Backend.POOL;
+        }
+
+        try {
+            return Backend.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown Groovy script executor backend [{}] (property: {}), using the default one", value, BACKEND_PROPERTY);
+            return Backend.POOL;
+        }
+    }
+
+    static Map<String, Integer> resolveTenantWeights() {
+        String value = System.getProperty(TENANT_WEIGHTS_PROPERTY);
+
+        if (value == null || value.isBlank()) {
+            return Map.of();
+        }
+
+        Map<String, Integer> weights = new HashMap<>();
+        for (String entry : value.split(",")) {
+            String[] tenantAndWeight = entry.split("=");
+            try {
+                weights.put(tenantAndWeight[0].trim(), Math.max(1, Integer.parseInt(tenantAndWeight[1].trim())));
+            } catch (RuntimeException e) {
+                log.warn("Invalid Groovy script executor tenant weight [{}] (property: {}), ignoring it", entry, TENANT_WEIGHTS_PROPERTY);
+            }
+        }
+
+        return weights;
+    }
+
+    /**
+     * Virtual threads are only available from Java 21, the executor is created by reflection so that the policy keeps
+     * running on older runtimes.
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            log.warn("Virtual threads are not supported by this Java runtime, using the pool backend to evaluate Groovy scripts");
+            return null;
+        }
+    }
+
+    /**
+     * Submits the given task on behalf of the {@link #DEFAULT_TENANT}, see {@link #submit(String, Callable)}.
+     */
+    public <T> Maybe<T> submit(Callable<T> task) {
+        return submit(DEFAULT_TENANT, task);
+    }
+
+    /**
+     * Submits the given task to the pool on behalf of the given tenant when subscribed. The returned {@link Maybe} completes
+     * empty if the task returns <code>null</code> and fails with a {@link ScriptExecutionRejectedException} if the pool is
+     * saturated. Disposing it before the task has started prevents the task from running, disposing it while the task is
+     * running interrupts the thread running it.
+     * <p/>
+     * Whatever the backend, the task runs entirely on a single thread, so that thread-local state such as the registration
+     * of the sandbox interceptor is consistent during the whole evaluation.
+     *
+     * @param tenantId the tenant submitting the task, {@link #DEFAULT_TENANT} if <code>null</code>.
+     * @param task the task to execute.
+     *
+     * @return the result of the task.
+     */
+    public <T> Maybe<T> submit(String tenantId, Callable<T> task) {
+        final ExecutionTenant tenant = getTenant(tenantId == null ? DEFAULT_TENANT : tenantId);
+
+        return Maybe.create(emitter -> {
+            final long submittedAt = System.nanoTime();
+            final ScriptTask scriptTask = new ScriptTask(
+                tenant,
+                () -> {
+                    long waitTime = System.nanoTime() - submittedAt;
+                    waitTimeNanos.add(waitTime);
+                    maxWaitTimeNanos.accumulate(waitTime);
+                    executed.increment();
+
+                    try {
+                        T result = task.call();
+                        if (result == null) {
+                            emitter.onComplete();
+                        } else {
+                            emitter.onSuccess(result);
+                        }
+                    } catch (Throwable t) {
+                        emitter.tryOnError(t);
+                    }
+                },
+                () -> {
+                    // Evicted from the queue by the evaluation of another tenant.
+                    rejected.increment();
+                    emitter.tryOnError(rejection());
+                }
+            );
+
+            tenant.submitted();
+            final Cancellable cancellable;
+
+            try {
+                cancellable = dispatch(scriptTask);
+            } catch (RejectedExecutionException e) {
+                tenant.dropped();
+                rejected.increment();
+                emitter.onError(rejection());
+                return;
+            }
+
+            emitter.setCancellable(cancellable);
+        });
+    }
+
+    private ScriptExecutionRejectedException rejection() {
+        return new ScriptExecutionRejectedException(
+            "Script execution rejected, " + poolSize + " threads busy and " + queueCapacity + " executions queued"
+        );
+    }
+
+    private Cancellable dispatch(ScriptTask task) {
+        switch (backend) {
+            case IO -> {
+                Disposable disposable = Schedulers.io().scheduleDirect(task);
+                return () -> {
+                    task.cancel();
+                    disposable.dispose();
+                };
+            }
+            case VIRTUAL -> {
+                if (!inFlightPermits.tryAcquire()) {
+                    throw new RejectedExecutionException();
+                }
+
+                try {
+                    executor.execute(() -> {
+                        try {
+                            task.run();
+                        } finally {
+                            inFlightPermits.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    inFlightPermits.release();
+                    throw e;
+                }
+
+                return task::cancel;
+            }
+            default -> {
+                ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) executor;
+                threadPoolExecutor.execute(task);
+                return () -> {
+                    task.cancel();
+                    // Do not let a cancelled evaluation hold a place in the queue, nor in the share of its tenant.
+                    threadPoolExecutor.remove(task);
+                };
+            }
+        }
+    }
+
+    /**
+     * @param tenantId the id of the tenant.
+     *
+     * @return the tenant with the given id, created with its configured weight on first access or once it has been released.
+     */
+    public ExecutionTenant getTenant(String tenantId) {
+        return tenants.asMap().computeIfAbsent(tenantId, id -> new ExecutionTenant(id, tenantWeights.getOrDefault(id, 1)));
+    }
+
+    /**
+     * @return the tenants which have submitted evaluations and have not been released yet, i.e. at least the tenants having
+     * waiting or running evaluations.
+     */
+    public Collection<ExecutionTenant> getTenants() {
+        return Collections.unmodifiableCollection(tenants.asMap().values());
+    }
+
+    public Backend getBackend() {
+        return backend;
+    }
+
+    public int getPoolSize() {
+        return poolSize;
+    }
+
+    /**
+     * @return the number of evaluations currently running, or <code>-1</code> if not tracked by the backend.
+     */
+    public int getActiveCount() {
+        return switch (backend) {
+            case POOL -> ((ThreadPoolExecutor) executor).getActiveCount();
+            case VIRTUAL -> poolSize + queueCapacity - inFlightPermits.availablePermits();
+            case IO -> -1;
+        };
+    }
+
+    /**
+     * @return the number of evaluations currently waiting for a thread, always <code>0</code> for the backends without queue.
+     */
+    public int getQueueDepth() {
+        return backend == Backend.POOL ? ((ThreadPoolExecutor) executor).getQueue().size() : 0;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    /**
+     * @return the number of evaluations which have started on the pool.
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * @return the number of evaluations rejected because the pool was saturated.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * @return the cumulated time, in nanoseconds, spent by the started evaluations waiting for a thread.
+     */
+    public long getTotalWaitTimeNanos() {
+        return waitTimeNanos.sum();
+    }
+
+    /**
+     * @return the longest time, in nanoseconds, an evaluation waited for a thread.
+     */
+    public long getMaxWaitTimeNanos() {
+        return maxWaitTimeNanos.get();
+    }
+
+    private static class DefaultPoolHolder {
+
+        private static final ScriptExecutionPool INSTANCE = create();
+
+        private static ScriptExecutionPool create() {
+            Backend backend = resolveBackend();
+            int poolSize = resolvePoolSize();
+            int queueSize = resolveQueueSize();
+            ScriptExecutionPool pool = new ScriptExecutionPool(backend, poolSize, queueSize, resolveTenantWeights());
+            log.debug(
+                "Groovy script execution pool created with the {} backend, {} thread(s) and a queue of {}",
+                pool.getBackend(),
+                poolSize,
+                queueSize
+            );
+            return pool;
+        }
+    }
+
+    public enum Backend {
+        POOL,
+        VIRTUAL,
+        IO,
+    }
+
+    /**
+     * Evaluation submitted on behalf of a tenant. The task runs at most once, and not at all if it is cancelled before
+     * being started. Cancelling a running task interrupts its thread: the sandbox interceptor then stops the script at its
+     * next intercepted call, which includes the checks injected by the execution timeout instrumentation.
+     */
+    static final class ScriptTask extends AtomicBoolean implements Runnable {
+
+        private final ExecutionTenant tenant;
+        private final Runnable evaluation;
+        private final Runnable rejection;
+        private Thread runner;
+
+        ScriptTask(ExecutionTenant tenant, Runnable evaluation) {
+            this(tenant, evaluation, () -> {});
+        }
+
+        ScriptTask(ExecutionTenant tenant, Runnable evaluation, Runnable rejection) {
+            this.tenant = tenant;
+            this.evaluation = evaluation;
+            this.rejection = rejection;
+        }
+
+        ExecutionTenant tenant() {
+            return tenant;
+        }
+
+        @Override
+        public void run() {
+            if (!compareAndSet(false, true)) {
+                return;
+            }
+
+            synchronized (this) {
+                runner = Thread.currentThread();
+            }
+
+            tenant.started();
+            try {
+                evaluation.run();
+            } finally {
+                tenant.finished();
+
+                synchronized (this) {
+                    runner = null;
+                    // Do not leak an interruption requested while the task was completing to the next task of the thread.
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * Rejects the task, which has been removed from the queue before being started.
+         */
+        void reject() {
+            if (compareAndSet(false, true)) {
+                tenant.dropped();
+                rejection.run();
+            }
+        }
+
+        void cancel() {
+            if (compareAndSet(false, true)) {
+                tenant.dropped();
+                return;
+            }
+
+            synchronized (this) {
+                if (runner != null) {
+                    runner.interrupt();
+                }
+            }
+        }
+    }
+
+    private static class ScriptThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "gio-groovy-script-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
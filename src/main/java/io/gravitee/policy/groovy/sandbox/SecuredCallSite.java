@@ -0,0 +1,150 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import groovy.lang.GroovyClassLoader;
+import io.gravitee.common.util.MultiValueMap;
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+import org.kohsuke.groovy.sandbox.GroovyInterceptor;
+import org.kohsuke.groovy.sandbox.SandboxTransformer;
+import org.kohsuke.groovy.sandbox.impl.Checker;
+
+/**
+ * Inline cache of a single method call site of a script, created by the {@link SandboxTransformer} for every
+ * <code>receiver.method(args)</code> expression.
+ * <p/>
+ * Most call sites always see the same receiver and argument types. Once the {@link SecuredInterceptor} has approved a call
+ * which can be dispatched directly (see {@link DirectDispatch}), the call site remembers the types of the call along with the
+ * handle of the method. The next calls with the very same types are then invoked through the handle without going through
+ * the {@link Checker} nor the {@link SecuredResolver}, as long as the interceptor which approved the call is still the only
+ * one registered. Any other call takes the regular path and replaces the remembered types when approved.
+ * <p/>
+ * Calls to known blocking operations are never remembered, so that they keep being reported to the execution profile.
+ *
+ * @author GraviteeSource Team
+ */
+public final class SecuredCallSite {
+
+    private volatile Entry entry;
+
+    public Object checkedCall(Object receiver, boolean safe, boolean spread, Object method, Object[] args) throws Throwable {
+        Entry cached = entry;
+
+        if (cached != null && cached.matches(receiver, method, args)) {
+            SecuredInterceptor.checkCancelled();
+            return (Object) cached.handle.invokeExact(receiver, args);
+        }
+
+        Object result = Checker.checkedCall(receiver, safe, spread, method, args);
+
+        if (!spread && receiver != null && method instanceof String) {
+            remember(receiver, (String) method, args);
+        }
+
+        return result;
+    }
+
+    private void remember(Object receiver, String method, Object[] args) {
+        SecuredInterceptor interceptor = directDispatchInterceptor();
+
+        if (receiver instanceof Class || (receiver instanceof MultiValueMap && method.equals("put")) || interceptor == null) {
+            // Static calls and the MultiValueMap special case are not dispatched as written by the script.
+            return;
+        }
+
+        Class<?>[] argumentClasses = new Class<?>[args.length];
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == null || args[i].getClass().getClassLoader() instanceof GroovyClassLoader) {
+                // Do not pin the class loader of another script.
+                return;
+            }
+            argumentClasses[i] = args[i].getClass();
+        }
+
+        if (BlockingOperations.isBlocking(receiver, method, args)) {
+            return;
+        }
+
+        SecuredResolver resolver = SecuredResolver.getInstance();
+        DecisionTable.Decision decision = resolver.resolveMethod(receiver, method, args);
+        MethodHandle handle = decision.isAllowed() && DirectDispatch.accepts(args) ? decision.handle(false) : null;
+
+        if (handle != null) {
+            entry = new Entry(interceptor, resolver, receiver.getClass(), method, argumentClasses, handle);
+        }
+    }
+
+    /**
+     * @return the {@link SecuredInterceptor} dispatching approved calls directly if it is the only interceptor checking the calls
+     * of the script, <code>null</code> otherwise.
+     */
+    private static SecuredInterceptor directDispatchInterceptor() {
+        List<GroovyInterceptor> interceptors = GroovyInterceptor.getApplicableInterceptors();
+
+        if (
+            interceptors.size() == 1 &&
+            interceptors.get(0) instanceof SecuredInterceptor securedInterceptor &&
+            securedInterceptor.isDirectDispatch()
+        ) {
+            return securedInterceptor;
+        }
+
+        return null;
+    }
+
+    private static boolean isOnlyInterceptor(GroovyInterceptor interceptor) {
+        List<GroovyInterceptor> interceptors = GroovyInterceptor.getApplicableInterceptors();
+
+        return interceptors.size() == 1 && interceptors.get(0) == interceptor;
+    }
+
+    private record Entry(
+        SecuredInterceptor interceptor,
+        SecuredResolver resolver,
+        Class<?> receiverClass,
+        String method,
+        Class<?>[] argumentClasses,
+        MethodHandle handle
+    ) {
+        boolean matches(Object receiver, Object method, Object[] args) {
+            if (
+                receiver == null ||
+                receiver.getClass() != receiverClass ||
+                method != this.method ||
+                args.length != argumentClasses.length ||
+                resolver != SecuredResolver.getInstance()
+            ) {
+                // Whitelist reloads replace the resolver, and with it every decision taken so far.
+                return false;
+            }
+
+            if (!isOnlyInterceptor(interceptor)) {
+                // The script runs under other interceptors (or none), which must see every call.
+                return false;
+            }
+
+            for (int i = 0; i < args.length; i++) {
+                if (args[i] == null || args[i].getClass() != argumentClasses[i]) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+}
@@ -17,17 +17,25 @@ package io.gravitee.policy.groovy.sandbox;
 
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.RemovalNotification;
 import groovy.lang.Binding;
 import groovy.lang.GroovyCodeSource;
 import groovy.lang.GroovyShell;
 import groovy.lang.Script;
+import groovy.transform.CompileStatic;
+import groovy.transform.ThreadInterrupt;
 import groovy.transform.TimedInterrupt;
 import io.gravitee.policy.groovy.GroovyPolicy;
+import io.gravitee.policy.groovy.configuration.ExecutionMode;
 import io.gravitee.policy.groovy.utils.Sha1;
 import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.schedulers.Schedulers;
 import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.groovy.json.internal.FastStringUtils;
@@ -38,8 +46,8 @@ import org.codehaus.groovy.control.CompilerConfiguration;
 import org.codehaus.groovy.control.customizers.ASTTransformationCustomizer;
 import org.codehaus.groovy.control.customizers.SecureASTCustomizer;
 import org.codehaus.groovy.runtime.InvokerHelper;
-import org.kohsuke.groovy.sandbox.GroovyInterceptor;
 import org.kohsuke.groovy.sandbox.SandboxTransformer;
+import org.springframework.lang.Nullable;
 
 /**
  * @author Jeoffrey HAEYAERT (jeoffrey.haeyaert at graviteesource.com)
@@ -55,11 +63,27 @@ public class SecuredGroovyShell {
     static final long SCRIPT_TIMEOUT_MIN_SECONDS = 1L;
     static final long SCRIPT_TIMEOUT_MAX_SECONDS = 30L;
 
+    /** Execution time p99 threshold in microseconds for a script to run inline in {@link ExecutionMode#AUTO} mode. */
+    static final String INLINE_BUDGET_PROPERTY = "gravitee.policy.groovy.script.inline.budget.micros";
+
+    static final long INLINE_BUDGET_DEFAULT_MICROS = 500L;
+
+    /** Maximum estimated memory used by the compiled scripts kept in cache, in megabytes (at least {@value #CODE_CACHE_MIN_SIZE_MB}). */
+    static final String CODE_CACHE_SIZE_PROPERTY = "gravitee.policy.groovy.script.cache.size.mb";
+
+    static final long CODE_CACHE_DEFAULT_SIZE_MB = 64L;
+    static final long CODE_CACHE_MIN_SIZE_MB = 1L;
+
     /**
      * Number of hours to keep compiled script in cache after the last time it was accessed.
      */
     private static final int CODE_CACHE_EXPIRATION_HOURS = 1;
 
+    /**
+     * Maximum number of compilation failures to remember, so that a script which doesn't compile is not recompiled on every request.
+     */
+    private static final int COMPILATION_FAILURES_MAX_SIZE = 1000;
+
     static {
         // Do not change this block of code which is required to work with the classloader used
         // to load services
@@ -69,9 +93,22 @@ public class SecuredGroovyShell {
         Thread.currentThread().setContextClassLoader(loader);
     }
 
-    private final GroovyShell groovyShell;
-    private final Cache<String, Class<?>> sources;
-    private final GroovyInterceptor groovyInterceptor;
+    private final ScriptClassLoader classLoader;
+    private final Cache<String, ScriptClassLoader.ScriptClass> sources;
+    private final Cache<String, RuntimeException> compilationFailures;
+    private final SecuredInterceptor groovyInterceptor;
+    private final long inlineBudgetNanos;
+    private final ScriptExecutionPool executionPool;
+    private final ScriptCompilationService compilationService;
+    private final boolean typedScripts;
+    private final boolean strictTimeoutInstrumentation;
+    private final boolean trusted;
+
+    @Nullable
+    private final BytecodeCache bytecodeCache;
+
+    private volatile SecuredResolver compiledWith;
+    private volatile SecuredGroovyShell trustedShell;
 
     public SecuredGroovyShell() {
         this(false);
@@ -83,14 +120,77 @@ public class SecuredGroovyShell {
      * are rejected at compilation, which guarantees that no part of the script can escape the timeout. When
      * {@code false}, the instrumentation skips interfaces so that such scripts keep compiling.
      */
-
     public SecuredGroovyShell(boolean strictTimeoutInstrumentation) {
-        this.sources = CacheBuilder.newBuilder().expireAfterAccess(Duration.ofHours(CODE_CACHE_EXPIRATION_HOURS)).build();
+        this(strictTimeoutInstrumentation, null);
+    }
+
+    /**
+     * @param strictTimeoutInstrumentation see {@link #SecuredGroovyShell(boolean)}.
+     * @param variableTypes the type of the variables bound to the scripts, by variable name. When not {@code null}, the calls
+     * whose target can be resolved at compile time from these types are verified against the whitelist during the compilation
+     * and compiled as direct calls, instead of being checked at every execution. The other calls are still checked at run time.
+     */
+    public SecuredGroovyShell(boolean strictTimeoutInstrumentation, @Nullable Map<String, Class<?>> variableTypes) {
+        this(strictTimeoutInstrumentation, variableTypes, false);
+    }
+
+    /**
+     * @param strictTimeoutInstrumentation see {@link #SecuredGroovyShell(boolean)}.
+     * @param variableTypes see {@link #SecuredGroovyShell(boolean, Map)}.
+     * @param staticCompilation when {@code true}, the scripts are statically compiled and are not intercepted at run time: every
+     * method, constructor and field they use is verified against the whitelist during the compilation, and the scripts using
+     * something which cannot be resolved or verified at compile time are rejected. See {@link SecuredTypeCheckingExtension}.
+     */
+    public SecuredGroovyShell(
+        boolean strictTimeoutInstrumentation,
+        @Nullable Map<String, Class<?>> variableTypes,
+        boolean staticCompilation
+    ) {
+        this(strictTimeoutInstrumentation, variableTypes, staticCompilation, false);
+    }
+
+    /**
+     * @param trusted when {@code true}, the scripts are compiled without the sandbox and only protected by the execution
+     * timeout. Only used for the scripts signed with the key trusted by the gateway, see {@link TrustedScriptVerifier}.
+     */
+    private SecuredGroovyShell(
+        boolean strictTimeoutInstrumentation,
+        @Nullable Map<String, Class<?>> variableTypes,
+        boolean staticCompilation,
+        boolean trusted
+    ) {
+        this.strictTimeoutInstrumentation = strictTimeoutInstrumentation;
+        this.trusted = trusted;
+        // Weighted by the size of the generated classes, so that the cache is bounded by the metaspace the scripts use.
+        this.sources = CacheBuilder.newBuilder()
+            .maximumWeight(resolveCodeCacheSizeMegabytes() * 1024 * 1024)
+            .weigher((String key, ScriptClassLoader.ScriptClass scriptClass) -> scriptClass.weight())
+            .expireAfterAccess(Duration.ofHours(CODE_CACHE_EXPIRATION_HOURS))
+            .removalListener((RemovalNotification<String, ScriptClassLoader.ScriptClass> removal) -> removal.getValue().unload())
+            .recordStats()
+            .build();
+        // Failures also expire as they may depend on the whitelist (e.g. forbidden annotations) which can be reloaded.
+        this.compilationFailures = CacheBuilder.newBuilder()
+            .maximumSize(COMPILATION_FAILURES_MAX_SIZE)
+            .expireAfterWrite(Duration.ofHours(CODE_CACHE_EXPIRATION_HOURS))
+            .recordStats()
+            .build();
 
         CompilerConfiguration conf = new CompilerConfiguration();
 
-        // Add Kohsuke's sandbox transformer which will delegate calls to SecuredInterceptor.
-        conf.addCompilationCustomizers(new SandboxTransformer());
+        this.typedScripts = variableTypes != null || staticCompilation;
+        if (staticCompilation) {
+            // Mark the code of the script, so that the code generated by the transformations below is not verified.
+            conf.addCompilationCustomizers(SecuredTypeCheckingExtension.sourceMarker(variableTypes != null ? variableTypes : Map.of()));
+        } else if (!trusted) {
+            // Verify statically resolvable calls first, so that the sandbox transformer does not intercept them.
+            if (variableTypes != null) {
+                conf.addCompilationCustomizers(new StaticCallVerifier(Map.copyOf(variableTypes)));
+            }
+
+            // Add Kohsuke's sandbox transformer which will delegate calls to SecuredInterceptor.
+            conf.addCompilationCustomizers(new SandboxTransformer(SecuredCallSite.class));
+        }
 
         // Avoid use of some groovy annotations that could lead to security issues.
         conf.addCompilationCustomizers(new SecuredAnnotationCustomizer());
@@ -116,73 +216,290 @@ public class SecuredGroovyShell {
             conf.addCompilationCustomizers(new InterfaceSafeTimedInterruptCustomizer(timedInterruptParams));
         }
 
-        this.groovyShell = new GroovyShell(conf);
+        if (staticCompilation || trusted) {
+            // Not intercepted at run time: stop the script at the checks of the execution timeout once its thread has been
+            // interrupted, e.g. because the evaluation has been disposed, like SecuredInterceptor does for sandboxed scripts.
+            conf.addCompilationCustomizers(new ASTTransformationCustomizer(ThreadInterrupt.class));
+        }
+
+        if (staticCompilation) {
+            conf.addCompilationCustomizers(SecuredTypeCheckingExtension.generatedCodeMarker());
+            conf.addCompilationCustomizers(
+                new ASTTransformationCustomizer(
+                    Map.of("extensions", List.of(SecuredTypeCheckingExtension.class.getName())),
+                    CompileStatic.class
+                )
+            );
+
+            // The type checking extension and the types of the variables must be visible from the class loader of the scripts.
+            this.classLoader = new ScriptClassLoader(SecuredGroovyShell.class.getClassLoader(), conf);
+        } else {
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            this.classLoader = new ScriptClassLoader(
+                contextClassLoader != null ? contextClassLoader : SecuredGroovyShell.class.getClassLoader(),
+                conf
+            );
+        }
+
+        this.bytecodeCache = BytecodeCache.fromSystemProperty(
+            variant(strictTimeoutInstrumentation, variableTypes, staticCompilation, trusted, scriptTimeoutSeconds)
+        );
+        this.inlineBudgetNanos = TimeUnit.MICROSECONDS.toNanos(resolveInlineBudgetMicros());
+        this.executionPool = ScriptExecutionPool.getDefault();
+        this.compilationService = ScriptCompilationService.getDefault();
 
         // Create a groovy interceptor to intercept all calls and check if they are allowed or not.
         this.groovyInterceptor = new SecuredInterceptor();
     }
 
+    /**
+     * Describes everything the classes generated by a shell depend on, apart from the script, the whitelist and Groovy.
+     */
+    private static String variant(
+        boolean strictTimeoutInstrumentation,
+        @Nullable Map<String, Class<?>> variableTypes,
+        boolean staticCompilation,
+        boolean trusted,
+        long scriptTimeoutSeconds
+    ) {
+        StringBuilder variant = new StringBuilder()
+            .append(trusted ? "trusted" : staticCompilation ? "static" : "sandbox")
+            .append(strictTimeoutInstrumentation ? ",strict" : ",non-strict")
+            .append(staticCompilation || trusted ? ",thread-interrupt" : "")
+            .append(",timeout=")
+            .append(scriptTimeoutSeconds);
+
+        if (variableTypes != null) {
+            new TreeMap<>(variableTypes).forEach((name, type) -> variant.append(',').append(name).append(':').append(type.getName()));
+        }
+
+        return variant.toString();
+    }
+
     static long resolveScriptTimeoutSeconds() {
         long value = Long.getLong(SCRIPT_TIMEOUT_PROPERTY, SCRIPT_TIMEOUT_DEFAULT_SECONDS);
         return Math.max(SCRIPT_TIMEOUT_MIN_SECONDS, Math.min(SCRIPT_TIMEOUT_MAX_SECONDS, value));
     }
 
+    static long resolveInlineBudgetMicros() {
+        return Math.max(0L, Long.getLong(INLINE_BUDGET_PROPERTY, INLINE_BUDGET_DEFAULT_MICROS));
+    }
+
+    static long resolveCodeCacheSizeMegabytes() {
+        return Math.max(CODE_CACHE_MIN_SIZE_MB, Long.getLong(CODE_CACHE_SIZE_PROPERTY, CODE_CACHE_DEFAULT_SIZE_MB));
+    }
+
+    /**
+     * Prepares a handle on the given script without compiling it. The handle compiles the script lazily, the first time it
+     * is compiled or evaluated.
+     *
+     * @param script the script to prepare.
+     *
+     * @return the handle to use to compile and evaluate the script.
+     */
+    public CompiledScript prepare(String script) {
+        if (!trusted && TrustedScriptVerifier.getInstance().isTrusted(script)) {
+            // Trusted scripts are compiled and cached apart, so that they never share a compiled class with a sandboxed script.
+            return trustedShell().prepare(script);
+        }
+
+        return new CompiledScript(this, getKey(script), script, inlineBudgetNanos);
+    }
+
     /**
      * Useful to pre-compile a given script or to check if a script compiles correctly.
      *
      * @param script the script to compile.
      *
+     * @return the handle on the compiled script.
+     *
      * @throws CompilationFailedException in case the script does not compile.
      */
-    public void compile(String script) throws CompilationFailedException {
-        getOrCreate(getKey(script), script);
+    public CompiledScript compile(String script) throws CompilationFailedException {
+        return prepare(script).compile();
     }
 
     public <T> T evaluate(String script, Binding binding) {
-        return evaluate(getKey(script), script, binding);
+        return evaluate(prepare(script), binding);
     }
 
     public <T> Maybe<T> evaluateRx(String script, Binding binding) {
-        final String key = getKey(script);
-        return Maybe.<T>fromCallable(() -> evaluate(key, script, binding))
-            .subscribeOn(Schedulers.io())
-            .observeOn(Schedulers.computation());
+        return evaluateRx(prepare(script), binding);
     }
 
-    private <T> T evaluate(String key, String script, Binding binding) {
+    public <T> Maybe<T> evaluateRx(CompiledScript script, Binding binding) {
+        return evaluateRx(script, binding, ExecutionMode.OFFLOADED);
+    }
+
+    /**
+     * Evaluates the script according to the given execution mode. Offloaded scripts are evaluated on the {@link ScriptExecutionPool}.
+     * Whatever the mode, a script which has not been compiled yet is always offloaded to avoid compiling it on the calling thread:
+     * it is compiled on the {@link ScriptCompilationService} first.
+     *
+     * @param script the script to evaluate.
+     * @param binding the binding to evaluate the script with.
+     * @param executionMode defines whether the script is evaluated on the calling thread or offloaded to a worker thread.
+     *
+     * @return the result of the script evaluation.
+     */
+    public <T> Maybe<T> evaluateRx(CompiledScript script, Binding binding, ExecutionMode executionMode) {
+        return evaluateRx(script, binding, executionMode, ScriptExecutionPool.DEFAULT_TENANT);
+    }
+
+    /**
+     * Same as {@link #evaluateRx(CompiledScript, Binding, ExecutionMode)}, offloading the evaluation on behalf of the given
+     * tenant so that the {@link ScriptExecutionPool} can share its capacity fairly between tenants.
+     *
+     * @param tenant the tenant of the evaluation, typically the id of the API.
+     */
+    public <T> Maybe<T> evaluateRx(CompiledScript script, Binding binding, ExecutionMode executionMode, String tenant) {
+        if (runsInline(script, executionMode)) {
+            return Maybe.fromCallable(() -> evaluate(script, binding));
+        }
+
+        Maybe<T> evaluation = executionPool.<T>submit(tenant, () -> evaluate(script, binding)).observeOn(Schedulers.computation());
+
+        if (!script.isCompiled()) {
+            // Compiled ahead of the precompilations, and only once if other policies are compiling the same script.
+            return compilationService.compile(script, ScriptCompilationService.Priority.REQUEST).andThen(evaluation);
+        }
+
+        return evaluation;
+    }
+
+    private boolean runsInline(CompiledScript script, ExecutionMode executionMode) {
+        if (!script.isCompiled()) {
+            return false;
+        }
+
+        return switch (executionMode) {
+            case INLINE -> true;
+            case AUTO -> script.profile().isInline();
+            case OFFLOADED -> false;
+        };
+    }
+
+    public <T> T evaluate(CompiledScript script, Binding binding) {
         try {
-            this.groovyInterceptor.register();
+            this.groovyInterceptor.register(script.profile());
 
             // Get script class.
-            Class<?> scriptClass = getOrCreate(key, script);
+            Class<?> scriptClass = script.scriptClass();
 
             // And run script.
             Script gScript = InvokerHelper.createScript(scriptClass, binding);
 
-            return (T) gScript.run();
+            long start = System.nanoTime();
+            try {
+                return (T) gScript.run();
+            } finally {
+                script.profile().record(System.nanoTime() - start);
+            }
         } finally {
             this.groovyInterceptor.unregister();
         }
     }
 
+    public ScriptExecutionPool getExecutionPool() {
+        return executionPool;
+    }
+
+    private SecuredGroovyShell trustedShell() {
+        SecuredGroovyShell shell = trustedShell;
+
+        if (shell == null) {
+            synchronized (this) {
+                shell = trustedShell;
+                if (shell == null) {
+                    shell = new SecuredGroovyShell(strictTimeoutInstrumentation, null, false, true);
+                    trustedShell = shell;
+                }
+            }
+        }
+
+        return shell;
+    }
+
     private String getKey(String script) {
         return Sha1.sha1(script);
     }
 
-    private Class<?> getOrCreate(String key, String script) throws CompilationFailedException {
+    /**
+     * @return the number of times a script compilation has been skipped because the script was already known to not compile.
+     */
+    public long getCompilationFailureCacheHits() {
+        return compilationFailures.stats().hitCount();
+    }
+
+    /**
+     * @return the statistics of the compiled script cache: hits, misses, evictions and compilation (load) time.
+     */
+    public CacheStats getCodeCacheStats() {
+        return sources.stats();
+    }
+
+    /**
+     * @return the whitelist the scripts are verified against at compile time, or <code>null</code> if the compiled scripts do not
+     * depend on the whitelist.
+     */
+    @Nullable
+    SecuredResolver verifiedWith() {
+        return typedScripts ? SecuredResolver.getInstance() : null;
+    }
+
+    Class<?> getOrCreate(String key, String script) throws CompilationFailedException {
+        SecuredResolver whitelist = verifiedWith();
+
+        if (whitelist != compiledWith) {
+            // Scripts compiled against another whitelist may call methods which are no longer allowed without checking them.
+            synchronized (this) {
+                if (whitelist != compiledWith) {
+                    sources.invalidateAll();
+                    compilationFailures.invalidateAll();
+                    compiledWith = whitelist;
+                }
+            }
+        }
+
+        RuntimeException compilationFailure = compilationFailures.getIfPresent(key);
+
+        if (compilationFailure != null) {
+            log.debug("Script [{}] is known to not compile, skipping compilation", key);
+            throw compilationFailure;
+        }
+
         try {
-            return sources.get(key, () -> {
-                GroovyCodeSource gcs = new GroovyCodeSource(script, key, GroovyShell.DEFAULT_CODE_BASE);
-                return groovyShell.getClassLoader().parseClass(gcs, true);
-            });
+            return sources.get(key, () -> compile(key, script)).scriptClass();
         } catch (Exception e) {
             final Throwable cause = e.getCause();
             if (cause instanceof CompilationFailedException) {
+                compilationFailures.put(key, (CompilationFailedException) cause);
                 throw (CompilationFailedException) cause;
             } else if (cause instanceof SecurityException) {
+                compilationFailures.put(key, (SecurityException) cause);
                 throw (SecurityException) cause;
             }
             throw new IllegalStateException("Unable to compile script", e);
         }
     }
+
+    private ScriptClassLoader.ScriptClass compile(String key, String script) {
+        GroovyCodeSource codeSource = new GroovyCodeSource(script, key, GroovyShell.DEFAULT_CODE_BASE);
+
+        if (bytecodeCache == null) {
+            return classLoader.compile(codeSource);
+        }
+
+        ScriptClassLoader.ScriptClass stored = bytecodeCache.load(script, classLoader);
+
+        if (stored != null) {
+            return stored;
+        }
+
+        Map<String, byte[]> bytecode = new LinkedHashMap<>();
+        ScriptClassLoader.ScriptClass compiled = classLoader.compile(codeSource, bytecode);
+        bytecodeCache.store(script, compiled.scriptClass().getName(), bytecode);
+
+        return compiled;
+    }
 }
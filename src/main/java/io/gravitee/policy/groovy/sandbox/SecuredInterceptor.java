@@ -19,6 +19,7 @@ import groovy.lang.GroovyRuntimeException;
 import groovy.lang.MetaClass;
 import groovy.lang.Script;
 import io.gravitee.common.util.MultiValueMap;
+import java.lang.invoke.MethodHandle;
 import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
@@ -32,8 +33,40 @@ import org.kohsuke.groovy.sandbox.GroovyInterceptor;
  */
 public class SecuredInterceptor extends GroovyInterceptor {
 
+    /** Whether allowed calls are invoked through the method handle cached with their decision, bypassing the Groovy dispatch. */
+    static final String DIRECT_DISPATCH_PROPERTY = "gravitee.policy.groovy.sandbox.direct.dispatch";
+
+    private final ThreadLocal<ExecutionProfile> executionProfile = new ThreadLocal<>();
+    private final boolean directDispatch;
+
+    public SecuredInterceptor() {
+        this.directDispatch = Boolean.parseBoolean(System.getProperty(DIRECT_DISPATCH_PROPERTY, "true"));
+    }
+
+    /**
+     * Registers this interceptor for the current thread. Known blocking operations called by the script are reported to the
+     * given profile until the interceptor is unregistered.
+     */
+    void register(ExecutionProfile profile) {
+        executionProfile.set(profile);
+        register();
+    }
+
+    boolean isDirectDispatch() {
+        return directDispatch;
+    }
+
+    @Override
+    public void unregister() {
+        super.unregister();
+        executionProfile.remove();
+    }
+
     @Override
     public Object onMethodCall(Invoker invoker, Object receiver, String method, Object... args) throws Throwable {
+        checkCancelled();
+        detectBlockingOperation(receiver, method, args);
+
         // Special case to handle HttpHeaders.set(Object, Object). Fallback to original method if generic 'set' method is not allowed (or found).
         if (
             receiver instanceof MultiValueMap &&
@@ -44,7 +77,14 @@ public class SecuredInterceptor extends GroovyInterceptor {
             return super.onMethodCall(invoker, receiver, "set", args);
         }
 
-        if (SecuredResolver.getInstance().isMethodAllowed(receiver, method, args)) {
+        DecisionTable.Decision decision = SecuredResolver.getInstance().resolveMethod(receiver, method, args);
+
+        if (decision.isAllowed()) {
+            MethodHandle handle = directHandle(decision, receiver, args);
+            if (handle != null) {
+                return (Object) handle.invokeExact((Object) receiver, args);
+            }
+
             return super.onMethodCall(invoker, receiver, method, args);
         }
 
@@ -53,7 +93,17 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onStaticCall(Invoker invoker, Class receiver, String method, Object... args) throws Throwable {
-        if (SecuredResolver.getInstance().isMethodAllowed(receiver, method, args)) {
+        checkCancelled();
+        detectBlockingOperation(receiver, method, args);
+
+        DecisionTable.Decision decision = SecuredResolver.getInstance().resolveMethod(receiver, method, args);
+
+        if (decision.isAllowed()) {
+            MethodHandle handle = directHandle(decision, receiver, args);
+            if (handle != null) {
+                return (Object) handle.invokeExact((Object) receiver, args);
+            }
+
             return super.onStaticCall(invoker, receiver, method, args);
         }
 
@@ -62,6 +112,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onNewInstance(Invoker invoker, Class receiver, Object... args) throws Throwable {
+        checkCancelled();
+
         if (SecuredResolver.getInstance().isConstructorAllowed(receiver, args)) {
             return super.onNewInstance(invoker, receiver, args);
         }
@@ -71,6 +123,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onSuperCall(Invoker invoker, Class senderType, Object receiver, String method, Object... args) throws Throwable {
+        checkCancelled();
+
         if (SecuredResolver.getInstance().isMethodAllowed(receiver, method, args)) {
             // groovy-sandbox's default super-call dispatch resolves the method against
             // senderType.getSuperclass(). Since Groovy 4 the meta method index for super calls became
@@ -90,6 +144,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public void onSuperConstructor(Invoker invoker, Class receiver, Object... args) throws Throwable {
+        checkCancelled();
+
         if (SecuredResolver.getInstance().isConstructorAllowed(receiver, args)) {
             super.onSuperConstructor(invoker, receiver, args);
         } else {
@@ -99,6 +155,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onGetProperty(Invoker invoker, Object receiver, String property) throws Throwable {
+        checkCancelled();
+
         if (receiver instanceof Script && !property.equals("binding") && !property.equals("metaClass")) {
             return super.onGetProperty(invoker, receiver, property);
         }
@@ -112,6 +170,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onSetProperty(Invoker invoker, Object receiver, String property, Object value) throws Throwable {
+        checkCancelled();
+
         if (receiver instanceof Script && !property.equals("binding") && !property.equals("metaClass")) {
             return super.onSetProperty(invoker, receiver, property, value);
         }
@@ -125,6 +185,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onGetAttribute(Invoker invoker, Object receiver, String attribute) throws Throwable {
+        checkCancelled();
+
         if (SecuredResolver.getInstance().isGetPropertyAllowed(receiver, attribute)) {
             return super.onGetAttribute(invoker, receiver, attribute);
         }
@@ -134,6 +196,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onSetAttribute(Invoker invoker, Object receiver, String attribute, Object value) throws Throwable {
+        checkCancelled();
+
         if (SecuredResolver.getInstance().isSetPropertyAllowed(receiver, attribute, value)) {
             return super.onSetAttribute(invoker, receiver, attribute, value);
         }
@@ -143,6 +207,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onGetArray(Invoker invoker, Object receiver, Object index) throws Throwable {
+        checkCancelled();
+
         if (isArrayAccess(receiver, index)) {
             return super.onGetArray(invoker, receiver, index);
         }
@@ -152,6 +218,8 @@ public class SecuredInterceptor extends GroovyInterceptor {
 
     @Override
     public Object onSetArray(Invoker invoker, Object receiver, Object index, Object value) throws Throwable {
+        checkCancelled();
+
         if (isArrayAccess(receiver, index)) {
             return super.onSetArray(invoker, receiver, index, value);
         }
@@ -159,6 +227,38 @@ public class SecuredInterceptor extends GroovyInterceptor {
         return onMethodCall(invoker, receiver, "putAt", index, value);
     }
 
+    /**
+     * Stops the script when the thread running it has been interrupted, e.g. because the evaluation has been disposed.
+     * The execution timeout instrumentation calls {@link System#nanoTime()} at every loop iteration, method and closure
+     * start, so even scripts which do not call anything else are stopped promptly.
+     */
+    static void checkCancelled() throws InterruptedException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedException("Script execution has been cancelled");
+        }
+    }
+
+    /**
+     * @return the handle to invoke the allowed method directly, or <code>null</code> when the call must go through the Groovy
+     * dispatch (multimethods, default groovy methods, script methods, GString arguments, ...).
+     */
+    private MethodHandle directHandle(DecisionTable.Decision decision, Object receiver, Object[] args) {
+        if (!directDispatch || !DirectDispatch.accepts(args)) {
+            return null;
+        }
+
+        return decision.handle(receiver instanceof Class);
+    }
+
+    private void detectBlockingOperation(Object receiver, String method, Object[] args) {
+        if (BlockingOperations.isBlocking(receiver, method, args)) {
+            ExecutionProfile profile = executionProfile.get();
+            if (profile != null) {
+                profile.markBlocking();
+            }
+        }
+    }
+
     private String prettyPrint(Object receiver, String method, Object... args) {
         return (
             (receiver instanceof Class<?> ? receiver : receiver.getClass()) +
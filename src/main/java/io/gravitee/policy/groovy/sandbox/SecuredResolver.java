@@ -21,13 +21,17 @@ import groovy.lang.GString;
 import groovy.lang.GroovyClassLoader;
 import groovy.lang.Script;
 import io.gravitee.common.util.EnvironmentUtils;
+import io.gravitee.policy.groovy.utils.Sha256;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandle;
 import java.lang.reflect.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
@@ -96,94 +100,168 @@ public class SecuredResolver {
 
     private static final List<String> ALLOWED_ARRAY_NATIVE_METHODS = Arrays.asList("getAt", "putAt", "getLength");
 
-    private static Map<Class<?>, List<Method>> methodsByType;
-    private static Map<Class<?>, List<Field>> fieldsByType;
-    private static Map<Class<?>, List<Constructor<?>>> constructorsByType;
-    private static Set<Class<?>> annotations;
+    private static final String CONSTRUCTOR_NAME = "<init>";
+    private static final Object[] NO_ARGS = {};
+    private static final Class<?>[] NO_CLASSES = {};
 
-    private final Map<Class<?>, List<Method>> methodsByTypeAndSuperTypes;
-    private final Map<String, Boolean> resolved;
+    /** Checksum of the declarations this whitelist has been loaded from. */
+    private final String version;
 
-    private static SecuredResolver instance;
+    /**
+     * Allowed members declared in the configuration, hashed on their declaring class and name. A resolved member is allowed if
+     * it belongs to these sets, whatever the class of the receiver it has been resolved from.
+     */
+    private final Set<Method> methods;
+    private final Set<Field> fields;
+    private final Set<Constructor<?>> constructors;
+
+    /** Names of the allowed annotations, in all the forms an annotation can be referenced with in a script. */
+    private final Set<String> annotationNames;
+
+    /**
+     * Allowed members of the built-in whitelist, resolved from its index the first time a member of their declaring class is
+     * checked.
+     */
+    @Nullable
+    private final WhitelistIndex builtIn;
+
+    private final ClassValue<WhitelistIndex.ClassMembers> builtInMembers = new ClassValue<>() {
+        @Override
+        protected WhitelistIndex.ClassMembers computeValue(Class<?> type) {
+            return builtIn != null ? builtIn.resolve(type) : WhitelistIndex.ClassMembers.EMPTY;
+        }
+    };
+
+    /**
+     * Allowed default groovy methods by name, to only look up the DGM classes which may declare the called method. Built on the
+     * first DGM check.
+     */
+    private volatile Map<String, List<DGMCandidate>> dgmCandidatesByName;
 
-    public static synchronized void initialize(@Nullable Environment environment) {
-        if (!isInitialized()) {
-            loadWhitelist(environment);
-            instance = new SecuredResolver();
+    /**
+     * Decisions already taken, attached to the receiver class itself so that they are dropped together with the classes
+     * defined by a script.
+     */
+    private final ClassValue<ClassDecisions> resolved = new ClassValue<>() {
+        @Override
+        protected ClassDecisions computeValue(Class<?> type) {
+            return new ClassDecisions();
         }
+    };
+
+    private final LongAdder decisionCacheHits = new LongAdder();
+    private final LongAdder decisionCacheMisses = new LongAdder();
+
+    /**
+     * The current resolver snapshot. The whitelist it holds is never mutated once published, so the interception hot path
+     * only needs a volatile read; the lifecycle methods below are the only ones taking the class monitor.
+     */
+    private static volatile SecuredResolver instance;
+
+    public static void initialize(@Nullable Environment environment) {
+        getOrCreate(environment);
     }
 
-    public static synchronized boolean isInitialized() {
+    public static boolean isInitialized() {
         return instance != null;
     }
 
     public static synchronized void destroy() {
-        if (isInitialized()) {
-            methodsByType.clear();
-            fieldsByType.clear();
-            constructorsByType.clear();
-            annotations.clear();
-            instance = null;
-        }
+        instance = null;
     }
 
     public static SecuredResolver getInstance() {
-        if (!isInitialized()) {
-            initialize(null);
+        SecuredResolver resolver = instance;
+        return resolver != null ? resolver : getOrCreate(null);
+    }
+
+    private static synchronized SecuredResolver getOrCreate(@Nullable Environment environment) {
+        if (instance == null) {
+            instance = loadWhitelist(environment);
         }
 
         return instance;
     }
 
-    private SecuredResolver() {
-        resolved = new ConcurrentHashMap<>();
-        methodsByTypeAndSuperTypes = new ConcurrentHashMap<>();
+    private SecuredResolver(
+        Set<Method> methods,
+        Set<Field> fields,
+        Set<Constructor<?>> constructors,
+        Set<Class<?>> annotations,
+        @Nullable WhitelistIndex builtIn,
+        String version
+    ) {
+        this.version = version;
+        this.methods = methods;
+        this.fields = fields;
+        this.constructors = constructors;
+        this.annotationNames = indexAnnotationNames(annotations);
+        this.builtIn = builtIn;
+    }
+
+    /**
+     * @return a checksum of the declarations this whitelist has been loaded from: the declarations of the configuration and, unless
+     * replaced, the built-in whitelist. Two whitelists with the same version allow the same members.
+     */
+    public String getVersion() {
+        return version;
     }
 
     public boolean isAnnotationAllowed(String name) {
-        // We only have an annotation name. Just try to find corresponding annotation testing all combinations.
-        return annotations
-            .stream()
-            .anyMatch(
-                aClass ->
-                    aClass.getCanonicalName().equals(name) ||
-                    aClass.getName().equals(name) ||
-                    aClass.getSimpleName().equals(name) ||
-                    aClass.getTypeName().equals(name)
-            );
+        // We only have an annotation name, which has been indexed in all its forms.
+        return annotationNames.contains(name);
+    }
+
+    private static Set<String> indexAnnotationNames(Set<Class<?>> annotations) {
+        Set<String> names = new HashSet<>();
+
+        for (Class<?> annotation : annotations) {
+            names.add(annotation.getName());
+            names.add(annotation.getSimpleName());
+            names.add(annotation.getTypeName());
+
+            if (annotation.getCanonicalName() != null) {
+                names.add(annotation.getCanonicalName());
+            }
+        }
+
+        return Set.copyOf(names);
     }
 
     public boolean isConstructorAllowed(Class<?> clazz, Object... constructorArgs) {
-        String key = getKey(clazz, "<init>", constructorArgs);
+        DecisionTable decisions = resolved.get(clazz).constructors;
+        Boolean decision = decisions.lookup(CONSTRUCTOR_NAME, constructorArgs);
 
-        if (resolved.containsKey(key)) {
-            return resolved.get(key);
+        if (isCached(decision)) {
+            return decision;
         }
 
+        Class<?>[] argumentClasses = getClasses(constructorArgs);
+
         if (isGroovyScriptDefinedClass(clazz)) {
-            resolved.put(key, true);
+            decisions.store(CONSTRUCTOR_NAME, argumentClasses, true);
             return true;
         }
 
-        Class<?>[] argumentClasses = getClasses(constructorArgs);
         Constructor<?> constructor = ConstructorUtils.getMatchingAccessibleConstructor(clazz, argumentClasses);
 
-        boolean constructorAllowed = constructorsByType.getOrDefault(clazz, emptyList()).contains(constructor);
-        resolved.put(key, constructorAllowed);
+        boolean constructorAllowed = constructor != null && isAllowed(constructor);
+        decisions.store(CONSTRUCTOR_NAME, argumentClasses, constructorAllowed);
 
         return constructorAllowed;
     }
 
     public boolean isGetPropertyAllowed(Object object, String propertyName) {
         Class<?> objectClass = object instanceof Class ? (Class<?>) object : object.getClass();
-        String key = getKey(object, propertyName, new Object[0]);
+        DecisionTable decisions = resolved.get(objectClass).getProperties;
+        Boolean decision = decisions.lookup(propertyName, NO_ARGS);
 
-        if (resolved.containsKey(key)) {
-            return resolved.get(key);
+        if (isCached(decision)) {
+            return decision;
         }
 
         if (isGroovyScriptDefinedClass(objectClass)) {
-            resolved.put(key, true);
+            decisions.store(propertyName, NO_CLASSES, true);
             return true;
         }
 
@@ -193,7 +271,7 @@ public class SecuredResolver {
         for (String prefix : getPrefixes) {
             String getter = prefix + StringUtils.capitalize(propertyName);
             if (isMethodAllowed(object, getter)) {
-                resolved.put(key, true);
+                decisions.store(propertyName, NO_CLASSES, true);
                 return true;
             }
         }
@@ -201,95 +279,174 @@ public class SecuredResolver {
         // Try to find accessible class property.
         Field field = FieldUtils.getDeclaredField(objectClass, propertyName);
 
-        if (field != null && getAllowedFields(objectClass).contains(field)) {
-            resolved.put(key, true);
+        if (field != null && isAllowed(field)) {
+            decisions.store(propertyName, NO_CLASSES, true);
             return true;
         }
 
+        decisions.store(propertyName, NO_CLASSES, false);
         return false;
     }
 
     public boolean isSetPropertyAllowed(Object object, String propertyName, Object propertyValue) {
         Class<?> objectClass = object instanceof Class ? (Class<?>) object : object.getClass();
-        String key = getKey(object, propertyName, new Object[0]);
+        DecisionTable decisions = resolved.get(objectClass).setProperties;
+
+        // The setter resolution depends on the value type, so the decision is remembered per value type.
+        Boolean decision = decisions.lookupSingle(propertyName, propertyValue);
 
-        if (resolved.containsKey(key)) {
-            return resolved.get(key);
+        if (isCached(decision)) {
+            return decision;
         }
 
+        Class<?>[] valueClass = { DecisionTable.argumentClass(propertyValue) };
+
         if (isGroovyScriptDefinedClass(objectClass)) {
-            resolved.put(key, true);
+            decisions.store(propertyName, valueClass, true);
             return true;
         }
 
         // Try to find 'set' method.
-        String getter = "set" + StringUtils.capitalize(propertyName);
+        String setter = "set" + StringUtils.capitalize(propertyName);
 
-        if (isMethodAllowed(object, getter, propertyValue)) {
-            resolved.put(key, true);
+        if (isMethodAllowed(object, setter, propertyValue)) {
+            decisions.store(propertyName, valueClass, true);
             return true;
         }
 
         // Try to find accessible class property.
         Field field = FieldUtils.getDeclaredField(objectClass, propertyName);
 
-        if (field != null && getAllowedFields(objectClass).contains(field)) {
-            resolved.put(key, true);
+        if (field != null && isAllowed(field)) {
+            decisions.store(propertyName, valueClass, true);
             return true;
         }
 
+        decisions.store(propertyName, valueClass, false);
         return false;
     }
 
     public boolean isMethodAllowed(Object object, String methodName, Object... methodArgs) {
+        return resolveMethod(object, methodName, methodArgs).isAllowed();
+    }
+
+    /**
+     * Checks a method resolved at compile time for a receiver of the given type, the same way calls are checked at run time:
+     * the method is allowed if it, or a method it overrides, is allowed.
+     */
+    boolean isMethodAllowed(Class<?> type, Method method) {
+        return findAllowedMethod(type, method.getName(), method.getParameterTypes()) != null;
+    }
+
+    /**
+     * Checks a constructor resolved at compile time, the same way constructor calls are checked at run time.
+     */
+    boolean isConstructorAllowed(Constructor<?> constructor) {
+        return isGroovyScriptDefinedClass(constructor.getDeclaringClass()) || isAllowed(constructor);
+    }
+
+    /**
+     * Checks a field resolved at compile time, the same way field accesses are checked at run time.
+     */
+    boolean isFieldAllowed(Field field) {
+        return isAllowed(field);
+    }
+
+    /**
+     * Same as {@link #isMethodAllowed(Object, String, Object...)}, returning the whole decision which also holds the handle to
+     * invoke the allowed method directly, when the Groovy dispatch would end up in this very method.
+     */
+    DecisionTable.Decision resolveMethod(Object object, String methodName, Object[] methodArgs) {
         Class<?> objectClass = object instanceof Class ? (Class<?>) object : object.getClass();
-        String key = getKey(objectClass, methodName, methodArgs);
+        DecisionTable decisions = resolved.get(objectClass).methods;
+        DecisionTable.Decision decision = decisions.find(methodName, methodArgs);
 
-        if (resolved.containsKey(key)) {
-            return resolved.get(key);
+        if (isCached(decision)) {
+            return decision;
         }
 
+        Class<?>[] argumentClasses = getClasses(methodArgs);
+
         if (object instanceof Number && NUMBER_MATH_METHOD_NAMES.contains(methodName)) {
             // Synthetic methods like Integer.plus(Integer).
-            resolved.put(key, true);
-            return true;
+            return decisions.store(methodName, argumentClasses, true, null, false);
         }
 
-        Class<?>[] argumentClasses = getClasses(methodArgs);
+        Method method = findAllowedMethod(objectClass, methodName, argumentClasses);
+
+        if (method != null) {
+            boolean staticCall = object instanceof Class;
+            // A null argument is resolved as an Object, which does not tell the overload the Groovy dispatch would select.
+            MethodHandle handle = isGroovyScriptDefinedMethod(method) || Arrays.asList(methodArgs).contains(null)
+                ? null
+                : DirectDispatch.resolve(objectClass, method, argumentClasses, staticCall);
+
+            return decisions.store(methodName, argumentClasses, true, handle, staticCall);
+        }
 
-        boolean methodAllowed =
-            isMethodAllowed(objectClass, methodName, argumentClasses) || isDGMAllowed(objectClass, methodName, argumentClasses);
-        resolved.put(key, methodAllowed);
+        return decisions.store(methodName, argumentClasses, isDGMAllowed(objectClass, methodName, argumentClasses), null, false);
+    }
 
-        return methodAllowed;
+    /**
+     * @return the number of decisions served from the cache since this resolver has been loaded.
+     */
+    public long getDecisionCacheHitCount() {
+        return decisionCacheHits.sum();
     }
 
-    private boolean isMethodAllowed(Class<?> clazz, String methodName, Class<?>[] argumentClasses) {
+    /**
+     * @return the number of decisions which had to be resolved against the whitelist since this resolver has been loaded.
+     */
+    public long getDecisionCacheMissCount() {
+        return decisionCacheMisses.sum();
+    }
+
+    private boolean isCached(Object decision) {
+        if (decision != null) {
+            decisionCacheHits.increment();
+            return true;
+        }
+
+        decisionCacheMisses.increment();
+        return false;
+    }
+
+    /**
+     * @return the allowed method matching the given name and arguments for the class or its super types, or <code>null</code>
+     * if there is none.
+     */
+    private Method findAllowedMethod(Class<?> clazz, String methodName, Class<?>[] argumentClasses) {
         if (clazz == null) {
-            return false;
+            return null;
         }
 
         Method method = getMatchingAccessibleMethod(clazz, methodName, argumentClasses);
 
-        if (method != null && (isGroovyScriptDefinedMethod(method) || getAllowedMethods(clazz).contains(method))) {
+        if (method != null && (isGroovyScriptDefinedMethod(method) || isAllowed(method))) {
             // Allow method if directly defined in the script or if the method is explicitly allowed.
-            return true;
+            return method;
         }
 
         // Try to find allowed method from super type.
-        if (isMethodAllowed(clazz.getSuperclass(), methodName, argumentClasses)) {
-            return true;
+        Method superMethod = findAllowedMethod(clazz.getSuperclass(), methodName, argumentClasses);
+
+        if (superMethod != null) {
+            return superMethod;
         }
 
         // Try to find allowed method from all interfaces.
         Class<?>[] interfaces = ClassUtils.getAllInterfacesForClass(clazz);
         for (Class<?> c : interfaces) {
-            if (c != clazz && isMethodAllowed(c, methodName, argumentClasses)) {
-                return true;
+            if (c != clazz) {
+                Method interfaceMethod = findAllowedMethod(c, methodName, argumentClasses);
+
+                if (interfaceMethod != null) {
+                    return interfaceMethod;
+                }
             }
         }
 
-        return false;
+        return null;
     }
 
     private Method getMatchingAccessibleMethod(Class<?> clazz, String methodName, Class<?>[] argumentClasses) {
@@ -301,10 +458,6 @@ public class SecuredResolver {
     }
 
     private boolean isDGMAllowed(Class<?> clazz, String methodName, Class<?>[] argumentClasses) {
-        Class<?>[] selfArgs = new Class[argumentClasses.length + 1];
-        selfArgs[0] = clazz;
-        System.arraycopy(argumentClasses, 0, selfArgs, 1, argumentClasses.length);
-
         if (clazz.isArray() && ALLOWED_ARRAY_NATIVE_METHODS.contains(methodName)) {
             // Groovy allows to call getAt(int) on an array (not a list which is handled by DGM classes).
             // array.getAt(0) is equivalent to array[0], so we mut allow the call.
@@ -312,11 +465,73 @@ public class SecuredResolver {
             return true;
         }
 
+        List<DGMCandidate> candidates = getDGMCandidatesByName().get(methodName);
+
+        if (candidates == null) {
+            return false;
+        }
+
+        Class<?>[] selfArgs = null;
+
         // Try to find allowed method from default groovy methods.
         for (Class<?> dgmClass : DGM_CLASSES) {
+            if (!hasApplicableCandidate(candidates, dgmClass, clazz, argumentClasses)) {
+                // No allowed method of this class can be called with these arguments, no need to resolve the method.
+                continue;
+            }
+
+            if (selfArgs == null) {
+                selfArgs = new Class[argumentClasses.length + 1];
+                selfArgs[0] = clazz;
+                System.arraycopy(argumentClasses, 0, selfArgs, 1, argumentClasses.length);
+            }
+
+            // The resolved method may still be a more specific one which is not allowed.
             Method method = getMatchingAccessibleMethod(dgmClass, methodName, selfArgs);
 
-            if (method != null && getAllowedMethods(dgmClass).contains(method)) {
+            if (method != null && isAllowed(method)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean isAllowed(Method method) {
+        return methods.contains(method) || builtInMembers.get(method.getDeclaringClass()).methods().contains(method);
+    }
+
+    private boolean isAllowed(Field field) {
+        return fields.contains(field) || builtInMembers.get(field.getDeclaringClass()).fields().contains(field);
+    }
+
+    private boolean isAllowed(Constructor<?> constructor) {
+        return (
+            constructors.contains(constructor) ||
+            builtInMembers.get(constructor.getDeclaringClass()).constructors().contains(constructor)
+        );
+    }
+
+    private Map<String, List<DGMCandidate>> getDGMCandidatesByName() {
+        Map<String, List<DGMCandidate>> candidates = dgmCandidatesByName;
+
+        if (candidates == null) {
+            // Concurrent first checks may build the index more than once, they all build the same one.
+            candidates = indexDGMCandidates();
+            dgmCandidatesByName = candidates;
+        }
+
+        return candidates;
+    }
+
+    private static boolean hasApplicableCandidate(
+        List<DGMCandidate> candidates,
+        Class<?> dgmClass,
+        Class<?> clazz,
+        Class<?>[] argumentClasses
+    ) {
+        for (DGMCandidate candidate : candidates) {
+            if (candidate.declaringClass() == dgmClass && candidate.isApplicable(clazz, argumentClasses)) {
                 return true;
             }
         }
@@ -324,6 +539,54 @@ public class SecuredResolver {
         return false;
     }
 
+    private Map<String, List<DGMCandidate>> indexDGMCandidates() {
+        Set<Class<?>> dgmClasses = Set.of(DGM_CLASSES);
+
+        return Stream
+            .concat(
+                methods.stream().filter(method -> dgmClasses.contains(method.getDeclaringClass())),
+                dgmClasses.stream().flatMap(dgmClass -> builtInMembers.get(dgmClass).methods().stream())
+            )
+            .filter(method -> method.getParameterCount() > 0)
+            .collect(
+                Collectors.groupingBy(
+                    Method::getName,
+                    Collectors.mapping(
+                        method -> new DGMCandidate(method.getDeclaringClass(), method.getParameterTypes(), method.isVarArgs()),
+                        Collectors.toUnmodifiableList()
+                    )
+                )
+            );
+    }
+
+    /**
+     * An allowed default groovy method, whose first parameter is the type of the object the method is called on.
+     */
+    private record DGMCandidate(Class<?> declaringClass, Class<?>[] parameterTypes, boolean varArgs) {
+        /**
+         * Indicates if the method could be called on an instance of the self type with the given arguments. This is only a
+         * pre-filter: the arguments of a varargs method are not checked beyond the fixed parameters.
+         */
+        boolean isApplicable(Class<?> self, Class<?>[] argumentClasses) {
+            int fixedParameters = varArgs ? parameterTypes.length - 1 : parameterTypes.length;
+            int arguments = argumentClasses.length + 1;
+
+            if (varArgs ? arguments < fixedParameters : arguments != fixedParameters) {
+                return false;
+            }
+
+            for (int i = 0; i < fixedParameters; i++) {
+                Class<?> type = i == 0 ? self : argumentClasses[i - 1];
+
+                if (!org.apache.commons.lang3.ClassUtils.isAssignable(type, parameterTypes[i], true)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
     /**
      * Indicates if the specified class has been defined in a Groovy script.
      * For that, class must be loaded from Groovy class loader and must not be assignable to {@link Script} class (which means the class is the compiled script himself).
@@ -364,48 +627,6 @@ public class SecuredResolver {
         return clazz.getClassLoader() instanceof GroovyClassLoader && clazz != Script.class;
     }
 
-    /**
-     * Returns all allowed methods for a given class.
-     *
-     * @param clazz the class.
-     * @return the list of all allowed methods for the specified class. If no method is allowed, an empty list will be returned.
-     */
-    private List<Method> getAllowedMethods(Class<?> clazz) {
-        if (methodsByTypeAndSuperTypes.containsKey(clazz)) {
-            return methodsByTypeAndSuperTypes.get(clazz);
-        }
-
-        List<Method> methods = methodsByType.getOrDefault(clazz, emptyList());
-
-        if (clazz.getSuperclass() != null) {
-            methods = Stream.concat(methods.stream(), getAllowedMethods(clazz.getSuperclass()).stream()).collect(Collectors.toList());
-        }
-
-        for (Class<?> anInterface : clazz.getInterfaces()) {
-            methods = Stream.concat(methods.stream(), getAllowedMethods(anInterface).stream()).collect(Collectors.toList());
-        }
-
-        methodsByTypeAndSuperTypes.put(clazz, methods);
-
-        return methods;
-    }
-
-    /**
-     * Returns all allowed fields for a given class.
-     *
-     * @param clazz the class.
-     * @return the list of all allowed fields for the specified class. If no field is allowed, an empty list will be returned.
-     */
-    private List<Field> getAllowedFields(Class<?> clazz) {
-        return fieldsByType.getOrDefault(clazz, emptyList());
-    }
-
-    private String getKey(Object object, String methodName, Object[] methodArgs) {
-        Class<?>[] argumentClasses = getClasses(methodArgs);
-
-        return (object instanceof Class<?> ? object : object.getClass()) + "#" + methodName + Arrays.toString(argumentClasses);
-    }
-
     /**
      * Transform a given array of objects to an array of corresponding object classes.
      * Note: {@link GString} class will be considered as {@link String} class.
@@ -417,23 +638,32 @@ public class SecuredResolver {
         Class<?>[] argumentClasses = new Class<?>[objects.length];
 
         for (int i = 0; i < objects.length; i++) {
-            if (objects[i] instanceof GString) {
-                // Groovy String must be considered as String to resolve methods and handle automatic Groovy cast to String.class.
-                argumentClasses[i] = String.class;
-            } else {
-                argumentClasses[i] = objects[i] != null ? objects[i].getClass() : Object.class;
-            }
+            argumentClasses[i] = DecisionTable.argumentClass(objects[i]);
         }
 
         return argumentClasses;
     }
 
-    private static void loadWhitelist(Environment environment) {
+    /**
+     * The decisions taken for a receiver class, one table per kind of interception so that a getter and a setter of the same
+     * property, or a method and a constructor, never share a decision.
+     */
+    private static final class ClassDecisions {
+
+        private final DecisionTable methods = new DecisionTable();
+        private final DecisionTable constructors = new DecisionTable();
+        private final DecisionTable getProperties = new DecisionTable();
+        private final DecisionTable setProperties = new DecisionTable();
+    }
+
+    private static SecuredResolver loadWhitelist(Environment environment) {
         List<Method> methods = new ArrayList<>();
         List<Field> fields = new ArrayList<>();
         List<Constructor<?>> constructors = new ArrayList<>();
         List<Class<?>> annotationClasses = new ArrayList<>();
         boolean loadBuiltInWhitelist = true;
+        WhitelistIndex builtIn = null;
+        MessageDigest version = Sha256.newDigest();
 
         // Load groovy-whitelist from configuration.
         if (environment != null) {
@@ -446,12 +676,28 @@ public class SecuredResolver {
             ).values();
 
             for (Object declaration : configWhitelist) {
+                version.update((declaration + "\n").getBytes(StandardCharsets.UTF_8));
                 parseDeclaration(String.valueOf(declaration), methods, fields, constructors, annotationClasses);
             }
         }
 
-        // Load built-in groovy-whitelist if required.
+        // Load built-in groovy-whitelist index if required, its members are resolved on first use.
         if (loadBuiltInWhitelist) {
+            builtIn = WhitelistIndex.load();
+
+            if (builtIn != null) {
+                version.update(builtIn.getChecksum().getBytes(StandardCharsets.UTF_8));
+
+                for (String annotation : builtIn.getAnnotations()) {
+                    parseDeclaration(WHITELIST_ANNOTATION_PREFIX + annotation, methods, fields, constructors, annotationClasses);
+                }
+            }
+        }
+
+        // Fall back to the built-in groovy-whitelist itself if its index has not been generated (e.g. running from sources).
+        if (loadBuiltInWhitelist && builtIn == null) {
+            log.warn("Groovy built-in whitelist index [{}] not found, loading the built-in whitelist eagerly", WhitelistIndex.RESOURCE);
+
             InputStream input = SecuredResolver.class.getResourceAsStream("/groovy-whitelist");
             BufferedReader reader = new BufferedReader(new InputStreamReader(input));
 
@@ -459,6 +705,7 @@ public class SecuredResolver {
 
             try {
                 while ((declaration = reader.readLine()) != null) {
+                    version.update((declaration + "\n").getBytes(StandardCharsets.UTF_8));
                     parseDeclaration(declaration, methods, fields, constructors, annotationClasses);
                 }
             } catch (IOException ioe) {
@@ -466,13 +713,14 @@ public class SecuredResolver {
             }
         }
 
-        methodsByType = methods.stream().collect(Collectors.groupingBy(Method::getDeclaringClass));
-
-        fieldsByType = fields.stream().collect(Collectors.groupingBy(Field::getDeclaringClass));
-
-        constructorsByType = constructors.stream().collect(Collectors.groupingBy(Constructor::getDeclaringClass));
-
-        annotations = new HashSet<>(annotationClasses);
+        return new SecuredResolver(
+            Set.copyOf(methods),
+            Set.copyOf(fields),
+            Set.copyOf(constructors),
+            Set.copyOf(annotationClasses),
+            builtIn,
+            Sha256.hex(version.digest())
+        );
     }
 
     private static void parseDeclaration(
@@ -501,7 +749,7 @@ public class SecuredResolver {
         }
     }
 
-    private static Method parseMethod(String declaration) throws ClassNotFoundException, NoSuchMethodException {
+    static Method parseMethod(String declaration) throws ClassNotFoundException, NoSuchMethodException {
         String[] split = declaration.split(" ");
         String clazzName = split[1];
         String methodName = split[2];
@@ -534,7 +782,7 @@ public class SecuredResolver {
         return safeGetDeclaredMembers(split[1], Class::getDeclaredMethods);
     }
 
-    private static Field parseField(String declaration) throws ClassNotFoundException, NoSuchFieldException {
+    static Field parseField(String declaration) throws ClassNotFoundException, NoSuchFieldException {
         String[] split = declaration.split(" ");
         String clazzName = split[1];
         String fieldName = split[2];
@@ -548,7 +796,7 @@ public class SecuredResolver {
         return safeGetDeclaredMembers(split[1], Class::getDeclaredFields);
     }
 
-    private static Constructor<?> parseConstructor(String declaration) throws ClassNotFoundException, NoSuchMethodException {
+    static Constructor<?> parseConstructor(String declaration) throws ClassNotFoundException, NoSuchMethodException {
         String[] split = declaration.split(" ");
         String clazzName = split[1];
         String[] args = {};
@@ -564,7 +812,7 @@ public class SecuredResolver {
         return clazz.getDeclaredConstructor(argumentClasses);
     }
 
-    private static Class<?>[] getArgumentClasses(String[] args) throws ClassNotFoundException {
+    static Class<?>[] getArgumentClasses(String[] args) throws ClassNotFoundException {
         Class<?>[] argumentClasses = new Class<?>[args.length];
         for (int i = 0; i < args.length; i++) {
             argumentClasses[i] = ClassUtils.forName(args[i], SecuredResolver.class.getClassLoader());
@@ -577,7 +825,7 @@ public class SecuredResolver {
         return safeGetDeclaredMembers(split[1], Class::getDeclaredConstructors);
     }
 
-    private static Class<?> parseAnnotation(String declaration) throws ClassNotFoundException {
+    static Class<?> parseAnnotation(String declaration) throws ClassNotFoundException {
         String[] split = declaration.split(" ");
         String clazzName = split[1];
 
@@ -0,0 +1,781 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import static org.codehaus.groovy.transform.stc.StaticTypeCheckingSupport.implementsInterfaceOrIsSubclassOf;
+
+import groovy.transform.CompileDynamic;
+import groovy.transform.CompileStatic;
+import groovy.transform.ThreadInterrupt;
+import groovy.transform.TimedInterrupt;
+import groovy.transform.TypeChecked;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.reflect.FieldUtils;
+import org.codehaus.groovy.ast.AnnotatedNode;
+import org.codehaus.groovy.ast.AnnotationNode;
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.ConstructorNode;
+import org.codehaus.groovy.ast.FieldNode;
+import org.codehaus.groovy.ast.InnerClassNode;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.expr.AttributeExpression;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.expr.CastExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ConstructorCallExpression;
+import org.codehaus.groovy.ast.expr.DeclarationExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.ListExpression;
+import org.codehaus.groovy.ast.expr.MapExpression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.MethodPointerExpression;
+import org.codehaus.groovy.ast.expr.PostfixExpression;
+import org.codehaus.groovy.ast.expr.PrefixExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.ast.expr.StaticMethodCallExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.ast.stmt.BlockStatement;
+import org.codehaus.groovy.ast.stmt.ExpressionStatement;
+import org.codehaus.groovy.ast.stmt.IfStatement;
+import org.codehaus.groovy.ast.stmt.ReturnStatement;
+import org.codehaus.groovy.ast.stmt.Statement;
+import org.codehaus.groovy.ast.stmt.ThrowStatement;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.syntax.Types;
+import org.codehaus.groovy.transform.stc.AbstractTypeCheckingExtension;
+import org.codehaus.groovy.transform.stc.ExtensionMethodNode;
+import org.codehaus.groovy.transform.stc.StaticTypeCheckingVisitor;
+import org.codehaus.groovy.transform.stc.StaticTypesMarker;
+import org.kohsuke.groovy.sandbox.SandboxTransformer;
+
+/**
+ * Type checking extension restricting statically compiled scripts to the {@link SecuredResolver} whitelist.
+ * <p/>
+ * Statically compiled scripts are not intercepted at run time: the methods, constructors and fields they use are resolved by
+ * the type checker, and this extension rejects the script as soon as one of them is not allowed. Conversions that could end up
+ * calling a constructor only known at run time (casts and coercions to a class, list or map literals assigned to a class) as
+ * well as method pointers and references cannot be verified, and are rejected as well. Coercions to an abstract class are only
+ * allowed if all its constructors are, as the proxy implementing it runs one of them.
+ * <p/>
+ * The code generated by the execution timeout and thread interruption transformations, which uses classes the scripts are not
+ * allowed to use, must not be checked. It is recognized thanks to the {@link #sourceMarker(Map)} and
+ * {@link #generatedCodeMarker()} customizers, which must respectively be added before and after these transformations. Any
+ * other code is checked, wherever it comes from.
+ * <p/>
+ * The scripts calling a known blocking operation are annotated with {@link CallsBlockingOperation}, since they are not
+ * intercepted at run time for the execution profile to notice it.
+ *
+ * @author GraviteeSource Team
+ */
+public class SecuredTypeCheckingExtension extends AbstractTypeCheckingExtension {
+
+    private static final String SOURCE = SecuredTypeCheckingExtension.class.getName() + ".SOURCE";
+    private static final String GENERATED = SecuredTypeCheckingExtension.class.getName() + ".GENERATED";
+    private static final String VARIABLE_TYPES = SecuredTypeCheckingExtension.class.getName() + ".VARIABLE_TYPES";
+
+    /** Fields added by the {@link TimedInterrupt} transformation, e.g. <code>timedInterrupt94919826$expireTime</code>. */
+    private static final Pattern TIMED_INTERRUPT_FIELD = Pattern.compile("timedInterrupt-?\\d+\\$(expireTime|startTime)");
+
+    private static final ClassNode BLOCKING_OPERATION = ClassHelper.make(CallsBlockingOperation.class);
+
+    /** Annotations changing how a class or a method is compiled, which could leave part of the script dynamic and unchecked. */
+    private static final Set<String> COMPILATION_ANNOTATIONS = Set.of(
+        CompileStatic.class.getName(),
+        CompileDynamic.class.getName(),
+        TypeChecked.class.getName()
+    );
+
+    public SecuredTypeCheckingExtension(StaticTypeCheckingVisitor typeCheckingVisitor) {
+        super(typeCheckingVisitor);
+    }
+
+    /**
+     * @param variableTypes the type of the variables bound to the scripts, by variable name.
+     *
+     * @return the customizer marking the code written in the script, to add before the transformations of the shell.
+     */
+    static CompilationCustomizer sourceMarker(Map<String, Class<?>> variableTypes) {
+        return new Marker(true, Map.copyOf(variableTypes));
+    }
+
+    /**
+     * @return the customizer marking the code generated by the {@link TimedInterrupt} and {@link ThreadInterrupt}
+     * transformations, to add after them. The code generated by any other transformation is verified as if it was written in
+     * the script.
+     */
+    static CompilationCustomizer generatedCodeMarker() {
+        return new Marker(false, null);
+    }
+
+    @Override
+    public boolean handleUnresolvedVariableExpression(VariableExpression expression) {
+        Map<String, Class<?>> variableTypes = typeCheckingVisitor.getTypeCheckingContext().getSource().getAST().getNodeMetaData(VARIABLE_TYPES);
+        Class<?> type = variableTypes != null ? variableTypes.get(expression.getName()) : null;
+
+        if (type == null) {
+            return false;
+        }
+
+        // Bound variables are read from the binding of the script, the calls made on them are still resolved statically.
+        makeDynamic(expression, classNodeFor(type));
+        return true;
+    }
+
+    @Override
+    public boolean beforeVisitClass(ClassNode node) {
+        SandboxTransformer sandboxTransformer = new SandboxTransformer();
+        node.getMethods().forEach(sandboxTransformer::forbidIfFinalizer);
+        checkImplicitSuperConstructor(node);
+        return false;
+    }
+
+    @Override
+    public void onMethodSelection(Expression expression, MethodNode target) {
+        if (expression.getNodeMetaData(GENERATED) != null) {
+            return;
+        }
+
+        if (!isAllowed(expression, target)) {
+            throw new SecurityException(
+                (target instanceof ConstructorNode ? "Constructor " : "Method ") + describe(target) + " cannot be used in the sandbox."
+            );
+        }
+
+        if (isBlocking(expression, target)) {
+            markBlocking();
+        }
+    }
+
+    @Override
+    public void afterVisitClass(ClassNode node) {
+        new ConversionAndFieldVerifier().visitClass(node);
+    }
+
+    private boolean isAllowed(Expression expression, MethodNode target) {
+        if (target instanceof ExtensionMethodNode extension) {
+            // Default groovy methods are whitelisted as the static methods implementing them.
+            MethodNode method = extension.getExtensionMethodNode();
+            Method implementation = toMethod(method);
+            return implementation != null && SecuredResolver.getInstance().isMethodAllowed(implementation.getDeclaringClass(), implementation);
+        }
+
+        if (target.getDeclaringClass().isPrimaryClassNode()) {
+            // Methods and constructors declared by the script.
+            return true;
+        }
+
+        if (target instanceof ConstructorNode) {
+            Constructor<?> constructor = toConstructor(target);
+            return constructor != null && SecuredResolver.getInstance().isConstructorAllowed(constructor);
+        }
+
+        Method method = toMethod(target);
+        return method != null && SecuredResolver.getInstance().isMethodAllowed(receiverClass(expression, method.getDeclaringClass()), method);
+    }
+
+    private boolean isBlocking(Expression expression, MethodNode target) {
+        if (target instanceof ConstructorNode) {
+            return false;
+        }
+
+        Class<?> declaringClass = toClass(target.getDeclaringClass());
+
+        if (declaringClass == null) {
+            return false;
+        }
+
+        boolean staticCall = target.isStatic() && !(target instanceof ExtensionMethodNode);
+        Class<?> receiverClass = receiverClass(expression, declaringClass);
+
+        return BlockingOperations.isBlocking(receiverClass, staticCall, target.getName(), target.getParameters().length);
+    }
+
+    private void markBlocking() {
+        for (ClassNode classNode : typeCheckingVisitor.getTypeCheckingContext().getSource().getAST().getClasses()) {
+            if (classNode.isScript() && classNode.getAnnotations(BLOCKING_OPERATION).isEmpty()) {
+                AnnotationNode annotation = new AnnotationNode(BLOCKING_OPERATION);
+                // Added after the annotations have been resolved: their retention is not computed anymore.
+                annotation.setRuntimeRetention(true);
+                classNode.addAnnotation(annotation);
+            }
+        }
+    }
+
+    /**
+     * @return the static type of the receiver of the call, from which the method is looked up in the whitelist the same way it
+     * is looked up from the runtime type of the receiver for dynamic calls.
+     */
+    private Class<?> receiverClass(Expression expression, Class<?> declaringClass) {
+        Expression receiver = null;
+
+        if (expression instanceof MethodCallExpression call && !call.isImplicitThis()) {
+            receiver = call.getObjectExpression();
+        } else if (expression instanceof PropertyExpression property) {
+            receiver = property.getObjectExpression();
+        } else if (expression instanceof BinaryExpression binary) {
+            receiver = binary.getLeftExpression();
+        }
+
+        Class<?> receiverClass = receiver != null ? toClass(getType(receiver)) : null;
+
+        return receiverClass != null && declaringClass.isAssignableFrom(receiverClass) ? receiverClass : declaringClass;
+    }
+
+    private void checkImplicitSuperConstructor(ClassNode node) {
+        ClassNode superClass = node.getSuperClass();
+
+        if (
+            node.isScript() ||
+            node.isInterface() ||
+            (node instanceof InnerClassNode inner && inner.isAnonymous()) ||
+            superClass == null ||
+            superClass.isPrimaryClassNode() ||
+            ClassHelper.isObjectType(superClass)
+        ) {
+            // Anonymous classes call the super constructor selected where they are instantiated.
+            return;
+        }
+
+        boolean implicitSuperCall =
+            node.getDeclaredConstructors().isEmpty() || node.getDeclaredConstructors().stream().anyMatch(c -> !callsConstructor(c));
+
+        if (!implicitSuperCall) {
+            return;
+        }
+
+        try {
+            Constructor<?> constructor = superClass.getTypeClass().getDeclaredConstructor();
+
+            if (!SecuredResolver.getInstance().isConstructorAllowed(constructor)) {
+                throw new SecurityException("Constructor " + superClass.getName() + "() cannot be used in the sandbox.");
+            }
+        } catch (NoSuchMethodException e) {
+            // Nothing to check, the class does not compile.
+        }
+    }
+
+    private static boolean callsConstructor(ConstructorNode constructor) {
+        Statement code = constructor.getCode();
+
+        if (code instanceof BlockStatement block && !block.getStatements().isEmpty()) {
+            code = block.getStatements().get(0);
+        }
+
+        return (
+            code instanceof ExpressionStatement statement &&
+            statement.getExpression() instanceof ConstructorCallExpression call &&
+            call.isSpecialCall()
+        );
+    }
+
+    private static Method toMethod(MethodNode method) {
+        Class<?> declaringClass = toClass(method.getDeclaringClass());
+        Class<?>[] parameterTypes = toClasses(method.getParameters());
+
+        if (declaringClass == null || parameterTypes == null) {
+            return null;
+        }
+
+        try {
+            return declaringClass.getDeclaredMethod(method.getName(), parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Constructor<?> toConstructor(MethodNode constructor) {
+        Class<?> declaringClass = toClass(constructor.getDeclaringClass());
+        Class<?>[] parameterTypes = toClasses(constructor.getParameters());
+
+        if (declaringClass == null || parameterTypes == null) {
+            return null;
+        }
+
+        try {
+            return declaringClass.getDeclaredConstructor(parameterTypes);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static Class<?>[] toClasses(Parameter[] parameters) {
+        Class<?>[] classes = new Class<?>[parameters.length];
+
+        for (int i = 0; i < parameters.length; i++) {
+            classes[i] = toClass(parameters[i].getType());
+
+            if (classes[i] == null) {
+                return null;
+            }
+        }
+
+        return classes;
+    }
+
+    /**
+     * @return the class the type erases to, or <code>null</code> if the type is declared by the script.
+     */
+    private static Class<?> toClass(ClassNode type) {
+        if (type == null) {
+            return null;
+        }
+
+        ClassNode erasure = type.isGenericsPlaceHolder() ? type.redirect() : type;
+
+        if (erasure.isPrimaryClassNode() || !erasure.isResolved()) {
+            return null;
+        }
+
+        return erasure.getTypeClass();
+    }
+
+    private static String describe(MethodNode method) {
+        StringBuilder description = new StringBuilder(method.getDeclaringClass().getName());
+
+        if (!(method instanceof ConstructorNode)) {
+            description.append('.').append(method.getName());
+        }
+
+        description.append('(');
+        for (int i = 0; i < method.getParameters().length; i++) {
+            description.append(i > 0 ? ", " : "").append(method.getParameters()[i].getType().getName());
+        }
+
+        return description.append(')').toString();
+    }
+
+    /**
+     * Verifies what the type checker does not report to {@link #onMethodSelection(Expression, MethodNode)}: the fields read and
+     * written by the script, and the conversions which may call a constructor at run time.
+     */
+    private class ConversionAndFieldVerifier extends ClassCodeVisitorSupport {
+
+        private final Set<Expression> assigned = Collections.newSetFromMap(new IdentityHashMap<>());
+        private MethodNode method;
+
+        @Override
+        protected SourceUnit getSourceUnit() {
+            return typeCheckingVisitor.getTypeCheckingContext().getSource();
+        }
+
+        @Override
+        protected void visitConstructorOrMethod(MethodNode node, boolean isConstructor) {
+            method = node;
+            super.visitConstructorOrMethod(node, isConstructor);
+        }
+
+        @Override
+        public void visitField(FieldNode node) {
+            if (node.hasInitialExpression()) {
+                checkConversion(node.getInitialExpression(), node.getType(), node.getInitialExpression());
+            }
+            super.visitField(node);
+        }
+
+        @Override
+        public void visitDeclarationExpression(DeclarationExpression expression) {
+            if (!expression.isMultipleAssignmentDeclaration()) {
+                checkConversion(expression, expression.getVariableExpression().getOriginType(), expression.getRightExpression());
+            }
+            super.visitDeclarationExpression(expression);
+        }
+
+        @Override
+        public void visitBinaryExpression(BinaryExpression expression) {
+            Expression left = expression.getLeftExpression();
+
+            if (expression.getOperation().getType() == Types.ASSIGN && !(expression instanceof DeclarationExpression)) {
+                assigned.add(left);
+                checkConversion(expression, left instanceof VariableExpression v ? v.getOriginType() : getType(left), expression.getRightExpression());
+            }
+            super.visitBinaryExpression(expression);
+        }
+
+        @Override
+        public void visitReturnStatement(ReturnStatement statement) {
+            if (method != null) {
+                checkConversion(statement.getExpression(), method.getReturnType(), statement.getExpression());
+            }
+            super.visitReturnStatement(statement);
+        }
+
+        @Override
+        public void visitCastExpression(CastExpression expression) {
+            checkConversion(expression, expression.getType(), expression.getExpression());
+            super.visitCastExpression(expression);
+        }
+
+        @Override
+        public void visitMethodPointerExpression(MethodPointerExpression expression) {
+            // Also covers method references, which extend method pointers.
+            if (expression.getNodeMetaData(GENERATED) == null) {
+                throw new SecurityException("Method pointers and references cannot be used in the sandbox.");
+            }
+            super.visitMethodPointerExpression(expression);
+        }
+
+        @Override
+        public void visitPropertyExpression(PropertyExpression expression) {
+            checkField(expression);
+            super.visitPropertyExpression(expression);
+        }
+
+        @Override
+        public void visitAttributeExpression(AttributeExpression expression) {
+            checkField(expression);
+            super.visitAttributeExpression(expression);
+        }
+
+        private void checkField(PropertyExpression expression) {
+            if (
+                expression.getNodeMetaData(GENERATED) != null ||
+                expression.getNodeMetaData(StaticTypesMarker.DIRECT_METHOD_CALL_TARGET) != null
+            ) {
+                // Properties read or written through accessors have been checked with the accessor.
+                return;
+            }
+
+            String name = expression.getPropertyAsString();
+            Expression object = expression.getObjectExpression();
+            ClassNode type = object instanceof ClassExpression ? object.getType() : getType(object);
+
+            if (type != null && type.isPrimaryClassNode()) {
+                // Fields declared by the script.
+                return;
+            }
+
+            Class<?> clazz = toClass(type);
+
+            if (name != null && clazz != null) {
+                if (clazz.isArray() && name.equals("length")) {
+                    return;
+                }
+
+                if (Map.class.isAssignableFrom(clazz) && !(expression instanceof AttributeExpression)) {
+                    checkMapAccess(expression, clazz);
+                    return;
+                }
+
+                Field field = FieldUtils.getField(clazz, name);
+
+                if (field != null && SecuredResolver.getInstance().isFieldAllowed(field)) {
+                    return;
+                }
+            }
+
+            throw new SecurityException("Property " + expression.getText() + " cannot be used in the sandbox.");
+        }
+
+        private void checkMapAccess(PropertyExpression expression, Class<?> mapClass) {
+            try {
+                Method method = assigned.contains(expression)
+                    ? Map.class.getMethod("put", Object.class, Object.class)
+                    : Map.class.getMethod("get", Object.class);
+
+                if (!SecuredResolver.getInstance().isMethodAllowed(mapClass, method)) {
+                    throw new SecurityException("Method " + mapClass.getName() + "." + method.getName() + " cannot be used in the sandbox.");
+                }
+            } catch (NoSuchMethodException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * Groovy converts a value to a class it is not an instance of by calling a constructor of the class chosen at run time, e.g.
+         * <code>File file = ['/etc/passwd']</code>. Only conversions to types which cannot be instantiated this way are allowed.
+         */
+        private void checkConversion(Expression expression, ClassNode target, Expression value) {
+            if (expression == null || expression.getNodeMetaData(GENERATED) != null || target == null || value == null) {
+                return;
+            }
+
+            // List and map literals are instantiated by the compiler as the target type when they are compatible with it.
+            ClassNode source = value instanceof ListExpression
+                ? ClassHelper.LIST_TYPE
+                : value instanceof MapExpression ? ClassHelper.MAP_TYPE : getType(value);
+
+            if (source != null && implementsInterfaceOrIsSubclassOf(source, target)) {
+                return;
+            }
+
+            if (!isSafeConversionTarget(target)) {
+                throw new SecurityException("Conversion to " + target.getName() + " cannot be used in the sandbox.");
+            }
+        }
+
+        private boolean isSafeConversionTarget(ClassNode target) {
+            if (target.isArray()) {
+                return isSafeConversionTarget(target.getComponentType());
+            }
+
+            if (
+                target.isPrimaryClassNode() ||
+                ClassHelper.isObjectType(target) ||
+                ClassHelper.isDynamicTyped(target) ||
+                ClassHelper.isPrimitiveType(target) ||
+                ClassHelper.isPrimitiveType(ClassHelper.getUnwrapper(target)) ||
+                ClassHelper.isStringType(target) ||
+                target.isInterface()
+            ) {
+                // Interfaces cannot be instantiated, values are converted to them using proxies running code of the script.
+                return true;
+            }
+
+            if (Modifier.isAbstract(target.getModifiers())) {
+                // Proxies of an abstract class run one of its constructors.
+                return areConstructorsAllowed(toClass(target));
+            }
+
+            return ClassHelper.make(java.util.ArrayList.class).isDerivedFrom(target) || ClassHelper.make(java.util.LinkedHashMap.class).isDerivedFrom(target);
+        }
+
+        private boolean areConstructorsAllowed(Class<?> clazz) {
+            if (clazz == null || clazz.getDeclaredConstructors().length == 0) {
+                return false;
+            }
+
+            for (Constructor<?> constructor : clazz.getDeclaredConstructors()) {
+                if (!SecuredResolver.getInstance().isConstructorAllowed(constructor)) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Added to the scripts calling a known blocking operation, see {@link BlockingOperations}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface CallsBlockingOperation {}
+
+    /**
+     * Marks the expressions of the scripts, see {@link #sourceMarker(Map)} and {@link #generatedCodeMarker()}.
+     */
+    private static class Marker extends CompilationCustomizer {
+
+        private final boolean source;
+        private final Map<String, Class<?>> variableTypes;
+
+        private Marker(boolean source, Map<String, Class<?>> variableTypes) {
+            super(CompilePhase.CANONICALIZATION);
+            this.source = source;
+            this.variableTypes = variableTypes;
+        }
+
+        @Override
+        public void call(SourceUnit sourceUnit, GeneratorContext context, ClassNode classNode) {
+            if (variableTypes != null) {
+                sourceUnit.getAST().putNodeMetaData(VARIABLE_TYPES, variableTypes);
+            }
+
+            new ClassCodeVisitorSupport() {
+                /** The key to mark the visited expressions with, <code>null</code> to leave them unmarked. */
+                private String key = source ? SOURCE : null;
+
+                @Override
+                protected SourceUnit getSourceUnit() {
+                    return sourceUnit;
+                }
+
+                @Override
+                public void visitAnnotations(AnnotatedNode node) {
+                    for (AnnotationNode annotation : node.getAnnotations()) {
+                        if (COMPILATION_ANNOTATIONS.contains(annotation.getClassNode().getName())) {
+                            throw new SecurityException("Annotation " + annotation.getClassNode().getName() + " cannot be used in the sandbox.");
+                        }
+                    }
+                    super.visitAnnotations(node);
+                }
+
+                @Override
+                protected void visitConstructorOrMethod(MethodNode node, boolean isConstructor) {
+                    if (source && classNode.isScript() && node.getLineNumber() <= 0 && (isConstructor || node.getName().equals("main"))) {
+                        // The constructors and the main method of the script class are generated by the compiler.
+                        visitMarked(GENERATED, () -> super.visitConstructorOrMethod(node, isConstructor));
+                    } else {
+                        super.visitConstructorOrMethod(node, isConstructor);
+                    }
+                }
+
+                @Override
+                public void visitField(FieldNode node) {
+                    if (!source && isTimedInterruptField(node)) {
+                        visitMarked(GENERATED, () -> super.visitField(node));
+                    } else {
+                        super.visitField(node);
+                    }
+                }
+
+                @Override
+                public void visitIfElse(IfStatement statement) {
+                    if (!source && (isTimedInterruptCheck(statement) || isThreadInterruptCheck(statement))) {
+                        visitMarked(GENERATED, () -> super.visitIfElse(statement));
+                    } else {
+                        super.visitIfElse(statement);
+                    }
+                }
+
+                @Override
+                public void visitMethodCallExpression(MethodCallExpression expression) {
+                    mark(expression);
+                    super.visitMethodCallExpression(expression);
+                }
+
+                @Override
+                public void visitStaticMethodCallExpression(StaticMethodCallExpression expression) {
+                    mark(expression);
+                    super.visitStaticMethodCallExpression(expression);
+                }
+
+                @Override
+                public void visitConstructorCallExpression(ConstructorCallExpression expression) {
+                    mark(expression);
+                    super.visitConstructorCallExpression(expression);
+                }
+
+                @Override
+                public void visitBinaryExpression(BinaryExpression expression) {
+                    mark(expression);
+                    super.visitBinaryExpression(expression);
+                }
+
+                @Override
+                public void visitPrefixExpression(PrefixExpression expression) {
+                    mark(expression);
+                    super.visitPrefixExpression(expression);
+                }
+
+                @Override
+                public void visitPostfixExpression(PostfixExpression expression) {
+                    mark(expression);
+                    super.visitPostfixExpression(expression);
+                }
+
+                @Override
+                public void visitPropertyExpression(PropertyExpression expression) {
+                    mark(expression);
+                    super.visitPropertyExpression(expression);
+                }
+
+                @Override
+                public void visitAttributeExpression(AttributeExpression expression) {
+                    mark(expression);
+                    super.visitAttributeExpression(expression);
+                }
+
+                @Override
+                public void visitCastExpression(CastExpression expression) {
+                    mark(expression);
+                    super.visitCastExpression(expression);
+                }
+
+                @Override
+                public void visitMethodPointerExpression(MethodPointerExpression expression) {
+                    mark(expression);
+                    super.visitMethodPointerExpression(expression);
+                }
+
+                @Override
+                public void visitReturnStatement(ReturnStatement statement) {
+                    mark(statement.getExpression());
+                    super.visitReturnStatement(statement);
+                }
+
+                private void visitMarked(String markedKey, Runnable visit) {
+                    String previousKey = key;
+                    key = markedKey;
+                    try {
+                        visit.run();
+                    } finally {
+                        key = previousKey;
+                    }
+                }
+
+                private void mark(Expression expression) {
+                    if (key != null && expression.getNodeMetaData(SOURCE) == null) {
+                        expression.putNodeMetaData(key, Boolean.TRUE);
+                    }
+                }
+            }
+                .visitClass(classNode);
+        }
+
+        /**
+         * @return <code>true</code> if the field has been added by the {@link TimedInterrupt} transformation to hold the start and
+         * expiration times of the script.
+         */
+        private static boolean isTimedInterruptField(FieldNode node) {
+            return node.getLineNumber() <= 0 && TIMED_INTERRUPT_FIELD.matcher(node.getName()).matches();
+        }
+
+        /**
+         * @return <code>true</code> if the statement is the check injected by the {@link TimedInterrupt} transformation, i.e.
+         * <code>if (this.timedInterrupt...$expireTime &lt; System.nanoTime()) throw new TimeoutException(...)</code>.
+         */
+        private static boolean isTimedInterruptCheck(IfStatement statement) {
+            return (
+                statement.getLineNumber() <= 0 &&
+                statement.getIfBlock() instanceof ThrowStatement &&
+                statement.getBooleanExpression().getExpression() instanceof BinaryExpression condition &&
+                condition.getNodeMetaData(SOURCE) == null &&
+                condition.getOperation().getType() == Types.COMPARE_LESS_THAN &&
+                condition.getLeftExpression() instanceof PropertyExpression expireTime &&
+                expireTime.getObjectExpression() instanceof VariableExpression receiver &&
+                receiver.isThisExpression() &&
+                TIMED_INTERRUPT_FIELD.matcher(expireTime.getPropertyAsString()).matches()
+            );
+        }
+
+        /**
+         * @return <code>true</code> if the statement is the check injected by the {@link ThreadInterrupt} transformation, i.e.
+         * <code>if (Thread.currentThread().isInterrupted()) throw new InterruptedException(...)</code>.
+         */
+        private static boolean isThreadInterruptCheck(IfStatement statement) {
+            return (
+                statement.getLineNumber() <= 0 &&
+                statement.getIfBlock() instanceof ThrowStatement &&
+                statement.getBooleanExpression().getExpression() instanceof MethodCallExpression isInterrupted &&
+                isInterrupted.getNodeMetaData(SOURCE) == null &&
+                "isInterrupted".equals(isInterrupted.getMethodAsString()) &&
+                isInterrupted.getObjectExpression() instanceof MethodCallExpression currentThread &&
+                "currentThread".equals(currentThread.getMethodAsString()) &&
+                currentThread.getObjectExpression() instanceof ClassExpression thread &&
+                thread.getType().getName().equals(Thread.class.getName())
+            );
+        }
+    }
+}
@@ -0,0 +1,442 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import groovy.lang.GroovyObject;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.codehaus.groovy.ast.ClassCodeVisitorSupport;
+import org.codehaus.groovy.ast.ClassHelper;
+import org.codehaus.groovy.ast.ClassNode;
+import org.codehaus.groovy.ast.DynamicVariable;
+import org.codehaus.groovy.ast.MethodNode;
+import org.codehaus.groovy.ast.Parameter;
+import org.codehaus.groovy.ast.Variable;
+import org.codehaus.groovy.ast.expr.ArgumentListExpression;
+import org.codehaus.groovy.ast.expr.AttributeExpression;
+import org.codehaus.groovy.ast.expr.BinaryExpression;
+import org.codehaus.groovy.ast.expr.CastExpression;
+import org.codehaus.groovy.ast.expr.ClassExpression;
+import org.codehaus.groovy.ast.expr.ClosureExpression;
+import org.codehaus.groovy.ast.expr.ConstantExpression;
+import org.codehaus.groovy.ast.expr.Expression;
+import org.codehaus.groovy.ast.expr.MethodCallExpression;
+import org.codehaus.groovy.ast.expr.PostfixExpression;
+import org.codehaus.groovy.ast.expr.PrefixExpression;
+import org.codehaus.groovy.ast.expr.PropertyExpression;
+import org.codehaus.groovy.ast.expr.SpreadExpression;
+import org.codehaus.groovy.ast.expr.TupleExpression;
+import org.codehaus.groovy.ast.expr.VariableExpression;
+import org.codehaus.groovy.classgen.GeneratorContext;
+import org.codehaus.groovy.control.CompilePhase;
+import org.codehaus.groovy.control.SourceUnit;
+import org.codehaus.groovy.control.customizers.CompilationCustomizer;
+import org.codehaus.groovy.syntax.Types;
+import org.kohsuke.groovy.sandbox.SandboxTransformer;
+
+/**
+ * Groovy compilation customizer verifying, against the {@link SecuredResolver} whitelist, the calls whose target can be
+ * resolved at compile time, so that the {@link SandboxTransformer} compiles them as direct calls instead of intercepting them.
+ * <p/>
+ * The static type of an expression is only known for:
+ * <ul>
+ *     <li>the variables bound to the script with a known type, as long as the script never assigns them,</li>
+ *     <li>the variables and parameters declared with a type,</li>
+ *     <li>constants and casts,</li>
+ *     <li>the result of the calls verified by this customizer.</li>
+ * </ul>
+ * A call is verified when its receiver has a known type declaring a single public method with this name and number of
+ * parameters, accepting the arguments without any Groovy coercion. Property reads are verified the same way against the getter
+ * of the property. All the other calls, as well as the ones which are not allowed, keep being intercepted at run time.
+ * <p/>
+ * A verified call is bound to the method resolved at compile time, the way Java would: Groovy would only pick another method
+ * at run time for a receiver declaring an overload of the method, or for a default groovy method more specific than it.
+ *
+ * @author GraviteeSource Team
+ */
+final class StaticCallVerifier extends CompilationCustomizer {
+
+    private final Map<String, Class<?>> variableTypes;
+
+    /**
+     * @param variableTypes the type of the variables bound to the scripts, by variable name.
+     */
+    StaticCallVerifier(Map<String, Class<?>> variableTypes) {
+        // Same phase as the sandbox transformer, which must be added after this customizer.
+        super(CompilePhase.CANONICALIZATION);
+        this.variableTypes = variableTypes;
+    }
+
+    @Override
+    public void call(SourceUnit source, GeneratorContext context, ClassNode classNode) {
+        AssignedVariables assigned = new AssignedVariables(source);
+        assigned.visitClass(classNode);
+        new Verifier(source, classNode.isScript(), assigned.names).visitClass(classNode);
+    }
+
+    /**
+     * Collects the name of the variables assigned by the script, which may no longer hold their bound value.
+     */
+    private static final class AssignedVariables extends ClassCodeVisitorSupport {
+
+        private final SourceUnit source;
+        private final Set<String> names = new HashSet<>();
+
+        private AssignedVariables(SourceUnit source) {
+            this.source = source;
+        }
+
+        @Override
+        protected SourceUnit getSourceUnit() {
+            return source;
+        }
+
+        @Override
+        public void visitBinaryExpression(BinaryExpression expression) {
+            if (Types.ofType(expression.getOperation().getType(), Types.ASSIGNMENT_OPERATOR)) {
+                collect(expression.getLeftExpression());
+            }
+            super.visitBinaryExpression(expression);
+        }
+
+        @Override
+        public void visitPrefixExpression(PrefixExpression expression) {
+            collect(expression.getExpression());
+            super.visitPrefixExpression(expression);
+        }
+
+        @Override
+        public void visitPostfixExpression(PostfixExpression expression) {
+            collect(expression.getExpression());
+            super.visitPostfixExpression(expression);
+        }
+
+        private void collect(Expression expression) {
+            if (expression instanceof VariableExpression variable) {
+                names.add(variable.getName());
+            } else if (expression instanceof TupleExpression tuple) {
+                tuple.getExpressions().forEach(this::collect);
+            }
+        }
+    }
+
+    private final class Verifier extends ClassCodeVisitorSupport {
+
+        private final SourceUnit source;
+        private final boolean script;
+        private final Set<String> assigned;
+        private int closureDepth;
+
+        private Verifier(SourceUnit source, boolean script, Set<String> assigned) {
+            this.source = source;
+            this.script = script;
+            this.assigned = assigned;
+        }
+
+        @Override
+        protected SourceUnit getSourceUnit() {
+            return source;
+        }
+
+        @Override
+        public void visitClosureExpression(ClosureExpression expression) {
+            // Inside a closure, an unqualified name may be resolved against the delegate of the closure instead of the binding.
+            closureDepth++;
+            try {
+                super.visitClosureExpression(expression);
+            } finally {
+                closureDepth--;
+            }
+        }
+
+        @Override
+        public void visitBinaryExpression(BinaryExpression expression) {
+            if (Types.ofType(expression.getOperation().getType(), Types.ASSIGNMENT_OPERATOR)) {
+                // The left hand side is written, not read.
+                visitTarget(expression.getLeftExpression());
+                expression.getRightExpression().visit(this);
+            } else {
+                super.visitBinaryExpression(expression);
+            }
+        }
+
+        @Override
+        public void visitPrefixExpression(PrefixExpression expression) {
+            visitTarget(expression.getExpression());
+        }
+
+        @Override
+        public void visitPostfixExpression(PostfixExpression expression) {
+            visitTarget(expression.getExpression());
+        }
+
+        private void visitTarget(Expression target) {
+            if (target instanceof PropertyExpression property) {
+                property.getObjectExpression().visit(this);
+                property.getProperty().visit(this);
+            } else if (!(target instanceof VariableExpression) && !(target instanceof TupleExpression)) {
+                target.visit(this);
+            }
+        }
+
+        @Override
+        public void visitVariableExpression(VariableExpression expression) {
+            Class<?> type = boundType(expression);
+
+            if (type != null) {
+                expression.putNodeMetaData(SandboxTransformer.VERIFIED, ClassHelper.make(type));
+            }
+        }
+
+        @Override
+        public void visitPropertyExpression(PropertyExpression expression) {
+            super.visitPropertyExpression(expression);
+
+            String property = expression.getPropertyAsString();
+            Class<?> type = staticType(expression.getObjectExpression());
+
+            if (
+                type == null ||
+                property == null ||
+                expression instanceof AttributeExpression ||
+                expression.isSafe() ||
+                expression.isSpreadSafe() ||
+                expression.getObjectExpression() instanceof ClassExpression ||
+                Map.class.isAssignableFrom(type) ||
+                !Character.isLowerCase(property.charAt(0))
+            ) {
+                return;
+            }
+
+            Method getter = getter(type, property);
+
+            if (getter != null) {
+                verify(expression, type, getter);
+            }
+        }
+
+        @Override
+        public void visitMethodCallExpression(MethodCallExpression call) {
+            super.visitMethodCallExpression(call);
+
+            String name = call.getMethodAsString();
+
+            if (
+                name == null ||
+                call.isImplicitThis() ||
+                call.isSafe() ||
+                call.isSpreadSafe() ||
+                !(call.getArguments() instanceof ArgumentListExpression arguments)
+            ) {
+                return;
+            }
+
+            boolean staticCall = call.getObjectExpression() instanceof ClassExpression;
+            Class<?> type = staticCall ? resolvedClass(call.getObjectExpression().getType()) : staticType(call.getObjectExpression());
+
+            if (type == null) {
+                return;
+            }
+
+            List<Expression> args = arguments.getExpressions();
+            Method method = uniqueMethod(type, name, args.size());
+
+            if (
+                method != null &&
+                Modifier.isStatic(method.getModifiers()) == staticCall &&
+                !(staticCall && method.getDeclaringClass().isInterface()) &&
+                acceptsArguments(method, args)
+            ) {
+                verify(call, type, method);
+            }
+        }
+
+        private void verify(Expression expression, Class<?> type, Method method) {
+            if (SecuredResolver.getInstance().isMethodAllowed(type, method)) {
+                expression.putNodeMetaData(SandboxTransformer.VERIFIED, toMethodNode(method));
+            }
+        }
+
+        private boolean acceptsArguments(Method method, List<Expression> args) {
+            Class<?>[] parameterTypes = method.getParameterTypes();
+
+            for (int i = 0; i < parameterTypes.length; i++) {
+                Expression arg = args.get(i);
+
+                if (arg instanceof SpreadExpression) {
+                    return false;
+                }
+
+                if (parameterTypes[i] == Object.class) {
+                    continue;
+                }
+
+                Class<?> argType = staticType(arg);
+
+                if (
+                    argType == null ||
+                    (parameterTypes[i].isPrimitive()
+                            ? argType != parameterTypes[i] && argType != ClassUtils.primitiveToWrapper(parameterTypes[i])
+                            : argType.isPrimitive() || !parameterTypes[i].isAssignableFrom(argType))
+                ) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * @return the type of the values the expression can evaluate to, or <code>null</code> if unknown.
+         */
+        private Class<?> staticType(Expression expression) {
+            Object verified = expression.getNodeMetaData(SandboxTransformer.VERIFIED);
+
+            if (verified instanceof MethodNode target) {
+                Class<?> type = resolvedClass(target.getReturnType());
+                return type == Object.class || type == void.class ? null : type;
+            }
+
+            if (expression instanceof ConstantExpression constant) {
+                return constant.getValue() != null ? constant.getValue().getClass() : null;
+            }
+
+            if (expression instanceof CastExpression cast && !cast.isCoerce()) {
+                return resolvedClass(cast.getType());
+            }
+
+            if (expression instanceof VariableExpression variable) {
+                Class<?> type = boundType(variable);
+
+                if (type != null) {
+                    return type;
+                }
+
+                Variable accessed = variable.getAccessedVariable();
+
+                if ((accessed instanceof VariableExpression || accessed instanceof Parameter) && !accessed.isDynamicTyped()) {
+                    return resolvedClass(accessed.getOriginType());
+                }
+            }
+
+            return null;
+        }
+
+        private Class<?> boundType(VariableExpression variable) {
+            if (
+                !script ||
+                closureDepth > 0 ||
+                !(variable.getAccessedVariable() instanceof DynamicVariable) ||
+                assigned.contains(variable.getName())
+            ) {
+                return null;
+            }
+
+            return variableTypes.get(variable.getName());
+        }
+    }
+
+    private static Class<?> resolvedClass(ClassNode type) {
+        if (type == null || !type.isResolved() || type.isGenericsPlaceHolder() || type.isArray()) {
+            return null;
+        }
+
+        Class<?> clazz = type.getTypeClass();
+
+        if (clazz == Object.class || GroovyObject.class.isAssignableFrom(clazz) || !Modifier.isPublic(clazz.getModifiers())) {
+            return null;
+        }
+
+        return clazz;
+    }
+
+    /**
+     * @return the only public method of the type with the given name and number of parameters, or <code>null</code> if there is
+     * none, several ones, or if the method could not be called directly.
+     */
+    private static Method uniqueMethod(Class<?> type, String name, int parameterCount) {
+        Method unique = null;
+
+        for (Method method : type.getMethods()) {
+            if (!method.getName().equals(name) || method.getParameterCount() != parameterCount || method.isBridge()) {
+                continue;
+            }
+
+            if (unique == null || isSameSignature(unique, method)) {
+                // The same method may be inherited from several super types, keep the most specific declaration.
+                if (unique == null || unique.getReturnType().isAssignableFrom(method.getReturnType())) {
+                    unique = method;
+                }
+            } else {
+                return null;
+            }
+        }
+
+        if (
+            unique == null ||
+            unique.isVarArgs() ||
+            unique.getDeclaringClass() == Object.class ||
+            !Modifier.isPublic(unique.getDeclaringClass().getModifiers())
+        ) {
+            return null;
+        }
+
+        return unique;
+    }
+
+    private static boolean isSameSignature(Method method, Method other) {
+        return Arrays.equals(method.getParameterTypes(), other.getParameterTypes());
+    }
+
+    private static Method getter(Class<?> type, String property) {
+        Method getter = uniqueMethod(type, "get" + StringUtils.capitalize(property), 0);
+        Method booleanGetter = uniqueMethod(type, "is" + StringUtils.capitalize(property), 0);
+
+        if (booleanGetter != null && booleanGetter.getReturnType() == boolean.class) {
+            return getter == null ? booleanGetter : null;
+        }
+
+        return getter != null && getter.getReturnType() != void.class && !Modifier.isStatic(getter.getModifiers()) ? getter : null;
+    }
+
+    private static MethodNode toMethodNode(Method method) {
+        Class<?>[] parameterTypes = method.getParameterTypes();
+        Parameter[] parameters = new Parameter[parameterTypes.length];
+
+        for (int i = 0; i < parameterTypes.length; i++) {
+            parameters[i] = new Parameter(ClassHelper.make(parameterTypes[i]), "arg" + i);
+        }
+
+        MethodNode node = new MethodNode(
+            method.getName(),
+            method.getModifiers(),
+            ClassHelper.make(method.getReturnType()),
+            parameters,
+            ClassNode.EMPTY_ARRAY,
+            null
+        );
+        node.setDeclaringClass(ClassHelper.make(method.getDeclaringClass()));
+
+        return node;
+    }
+}
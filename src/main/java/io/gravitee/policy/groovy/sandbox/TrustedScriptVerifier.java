@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import io.gravitee.policy.groovy.utils.Sha256;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.time.Duration;
+import java.util.Base64;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.env.Environment;
+import org.springframework.lang.Nullable;
+
+/**
+ * Recognizes the scripts signed with the key trusted by the gateway, which are run without being intercepted by the sandbox.
+ * <p/>
+ * A signed script starts with a <code>//@signature &lt;base64 signature&gt;</code> line, followed by the signed source: the
+ * signature covers every character after the end of the first line, encoded in UTF-8. The public key verifying the signatures
+ * is configured with 'groovy.trusted.key' (base64 encoded X.509 key, PEM headers are allowed) and its signature algorithm with
+ * 'groovy.trusted.algorithm' ({@value #DEFAULT_ALGORITHM} by default). No script is trusted when no key is configured.
+ * <p/>
+ * The result of the verification of a signed script is remembered by the SHA-256 of the whole script, so that the signature
+ * is verified, and an invalid signature reported, once per script rather than on every preparation.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public final class TrustedScriptVerifier {
+
+    static final String TRUSTED_KEY_KEY = "groovy.trusted.key";
+    static final String TRUSTED_ALGORITHM_KEY = "groovy.trusted.algorithm";
+    static final String DEFAULT_ALGORITHM = "SHA256withRSA";
+    static final String SIGNATURE_PREFIX = "//@signature ";
+
+    private static final int VERIFICATIONS_MAX_SIZE = 1000;
+    private static final int VERIFICATIONS_EXPIRATION_HOURS = 1;
+
+    private static final TrustedScriptVerifier NONE = new TrustedScriptVerifier(null, null);
+
+    private static volatile TrustedScriptVerifier instance;
+
+    @Nullable
+    private final PublicKey key;
+
+    @Nullable
+    private final String algorithm;
+
+    private final Cache<String, Boolean> verifications = CacheBuilder.newBuilder()
+        .maximumSize(VERIFICATIONS_MAX_SIZE)
+        .expireAfterAccess(Duration.ofHours(VERIFICATIONS_EXPIRATION_HOURS))
+        .recordStats()
+        .build();
+
+    private TrustedScriptVerifier(@Nullable PublicKey key, @Nullable String algorithm) {
+        this.key = key;
+        this.algorithm = algorithm;
+    }
+
+    public static synchronized void initialize(@Nullable Environment environment) {
+        if (instance == null) {
+            instance = load(environment);
+        }
+    }
+
+    public static synchronized void destroy() {
+        instance = null;
+    }
+
+    static TrustedScriptVerifier getInstance() {
+        TrustedScriptVerifier verifier = instance;
+        return verifier != null ? verifier : NONE;
+    }
+
+    /**
+     * @return <code>true</code> if the script carries a valid signature of its source, <code>false</code> if it is not signed,
+     * if its signature is invalid or if no key is trusted.
+     */
+    boolean isTrusted(String script) {
+        if (key == null || !script.startsWith(SIGNATURE_PREFIX)) {
+            return false;
+        }
+
+        // Keyed by a collision resistant hash of the whole script: a script must never be trusted for another one's signature.
+        String scriptHash = Sha256.sha256(script);
+        Boolean trusted = verifications.getIfPresent(scriptHash);
+
+        if (trusted == null) {
+            trusted = verify(script);
+            verifications.put(scriptHash, trusted);
+        }
+
+        return trusted;
+    }
+
+    CacheStats getVerificationStats() {
+        return verifications.stats();
+    }
+
+    private boolean verify(String script) {
+        int endOfLine = script.indexOf('\n');
+
+        if (endOfLine < 0) {
+            return false;
+        }
+
+        try {
+            Signature signature = Signature.getInstance(algorithm);
+            signature.initVerify(key);
+            signature.update(script.substring(endOfLine + 1).getBytes(StandardCharsets.UTF_8));
+
+            if (signature.verify(Base64.getDecoder().decode(script.substring(SIGNATURE_PREFIX.length(), endOfLine).trim()))) {
+                return true;
+            }
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            log.debug("Unable to verify the signature of the script", e);
+        }
+
+        log.warn("Script signature is invalid, the script is run in the sandbox");
+        return false;
+    }
+
+    private static TrustedScriptVerifier load(@Nullable Environment environment) {
+        String encodedKey = environment != null ? environment.getProperty(TRUSTED_KEY_KEY) : null;
+
+        if (encodedKey == null || encodedKey.isBlank()) {
+            return NONE;
+        }
+
+        String algorithm = environment.getProperty(TRUSTED_ALGORITHM_KEY, DEFAULT_ALGORITHM);
+
+        try {
+            // Signature algorithms are named <digest>with<key algorithm>, except the ones named after their key (e.g. Ed25519).
+            int with = algorithm.indexOf("with");
+            String keyAlgorithm = with < 0 ? algorithm : algorithm.substring(with + 4).replace("ECDSA", "EC");
+            byte[] der = Base64.getMimeDecoder().decode(encodedKey.replaceAll("-----[A-Z ]+-----", ""));
+            PublicKey key = KeyFactory.getInstance(keyAlgorithm).generatePublic(new X509EncodedKeySpec(der));
+
+            // Fail now rather than on every script if the algorithm is not supported.
+            Signature.getInstance(algorithm).initVerify(key);
+
+            return new TrustedScriptVerifier(key, algorithm);
+        } catch (IllegalArgumentException | GeneralSecurityException e) {
+            log.error("Unable to load the key trusted to sign Groovy scripts, all the scripts are run in the sandbox", e);
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_ANNOTATION_PREFIX;
+import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_CLASS_PREFIX;
+import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_CONSTRUCTOR_PREFIX;
+import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_FIELD_PREFIX;
+import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_METHOD_PREFIX;
+
+import io.gravitee.policy.groovy.utils.Sha256;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.lang.Nullable;
+import org.springframework.util.ClassUtils;
+
+/**
+ * A precomputed index of the built-in groovy-whitelist, grouping the declarations by class.
+ * <p/>
+ * The index is generated and validated at build time by {@link #main(String[])}, so that a bad declaration fails the build
+ * instead of being skipped at runtime. At runtime, loading the index only reads the class names: the declarations of a class
+ * are decoded and resolved by reflection the first time a member of this class has to be checked.
+ *
+ * @author GraviteeSource Team
+ */
+@Slf4j
+public final class WhitelistIndex {
+
+    static final String RESOURCE = "/groovy-whitelist.idx";
+
+    private static final int MAGIC = 0x47574958;
+    private static final int VERSION = 1;
+
+    private static final byte ALL_MEMBERS = 1;
+    private static final byte METHOD = 'm';
+    private static final byte FIELD = 'f';
+    private static final byte CONSTRUCTOR = 'c';
+
+    private final List<String> annotations;
+    private final Map<String, Integer> offsets;
+    private final byte[] declarations;
+    private final String checksum;
+
+    private WhitelistIndex(List<String> annotations, Map<String, Integer> offsets, byte[] declarations, String checksum) {
+        this.annotations = annotations;
+        this.offsets = offsets;
+        this.declarations = declarations;
+        this.checksum = checksum;
+    }
+
+    /**
+     * @return the built-in index, or <code>null</code> if it is not on the classpath.
+     */
+    @Nullable
+    static WhitelistIndex load() {
+        try (InputStream input = WhitelistIndex.class.getResourceAsStream(RESOURCE)) {
+            return input != null ? read(input) : null;
+        } catch (IOException ioe) {
+            log.error("Unable to read Groovy built-in whitelist index", ioe);
+            return null;
+        }
+    }
+
+    static WhitelistIndex read(InputStream input) throws IOException {
+        MessageDigest digest = Sha256.newDigest();
+        DataInputStream in = new DataInputStream(new DigestInputStream(input, digest));
+
+        if (in.readInt() != MAGIC || in.readUnsignedShort() != VERSION) {
+            throw new IOException("Unsupported Groovy whitelist index format");
+        }
+
+        int annotationCount = in.readInt();
+        List<String> annotations = new ArrayList<>(annotationCount);
+
+        for (int i = 0; i < annotationCount; i++) {
+            annotations.add(in.readUTF());
+        }
+
+        int classCount = in.readInt();
+        Map<String, Integer> offsets = new HashMap<>(classCount * 2);
+
+        for (int i = 0; i < classCount; i++) {
+            offsets.put(in.readUTF(), in.readInt());
+        }
+
+        byte[] declarations = new byte[in.readInt()];
+        in.readFully(declarations);
+
+        return new WhitelistIndex(List.copyOf(annotations), offsets, declarations, Sha256.hex(digest.digest()));
+    }
+
+    /**
+     * @return the SHA-256 checksum of the index, which changes whenever a declaration of the built-in whitelist changes.
+     */
+    String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return the names of the whitelisted annotations.
+     */
+    List<String> getAnnotations() {
+        return annotations;
+    }
+
+    /**
+     * Resolves the whitelisted members declared by the given class.
+     *
+     * @param clazz the class.
+     * @return the whitelisted members of the class. If the class has no whitelisted member, empty members will be returned.
+     */
+    ClassMembers resolve(Class<?> clazz) {
+        Integer offset = offsets.get(clazz.getName());
+
+        if (offset == null || !isBuiltInClass(clazz)) {
+            return ClassMembers.EMPTY;
+        }
+
+        Set<Method> methods = new HashSet<>();
+        Set<Field> fields = new HashSet<>();
+        Set<Constructor<?>> constructors = new HashSet<>();
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(declarations, offset, declarations.length - offset));
+
+            if (in.readByte() == ALL_MEMBERS) {
+                try {
+                    methods.addAll(Arrays.asList(clazz.getDeclaredMethods()));
+                    fields.addAll(Arrays.asList(clazz.getDeclaredFields()));
+                    constructors.addAll(Arrays.asList(clazz.getDeclaredConstructors()));
+                } catch (NoClassDefFoundError e) {
+                    log.error("Unable to load members from class [{}], a transitive dependency is missing: {}", clazz, e.getMessage());
+                }
+            }
+
+            int memberCount = in.readInt();
+
+            for (int i = 0; i < memberCount; i++) {
+                byte kind = in.readByte();
+                String name = in.readUTF();
+                String[] parameters = new String[in.readUnsignedByte()];
+
+                for (int p = 0; p < parameters.length; p++) {
+                    parameters[p] = in.readUTF();
+                }
+
+                try {
+                    switch (kind) {
+                        case METHOD -> methods.add(clazz.getDeclaredMethod(name, SecuredResolver.getArgumentClasses(parameters)));
+                        case FIELD -> fields.add(clazz.getDeclaredField(name));
+                        case CONSTRUCTOR -> constructors.add(clazz.getDeclaredConstructor(SecuredResolver.getArgumentClasses(parameters)));
+                        default -> throw new IOException("Unknown member kind [" + kind + "]");
+                    }
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    log.warn(
+                        "The Groovy whitelisted member [{} {}] cannot be loaded. Message is [{}]",
+                        clazz.getName(),
+                        name,
+                        e.toString()
+                    );
+                }
+            }
+        } catch (IOException ioe) {
+            log.error("Unable to read the Groovy whitelist index entry of class [{}]", clazz.getName(), ioe);
+        }
+
+        return new ClassMembers(Set.copyOf(methods), Set.copyOf(fields), Set.copyOf(constructors));
+    }
+
+    /**
+     * Only the classes visible from the policy class loader are whitelisted, not another class which would have the same name.
+     */
+    private static boolean isBuiltInClass(Class<?> clazz) {
+        try {
+            return ClassUtils.forName(clazz.getName(), SecuredResolver.class.getClassLoader()) == clazz;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * The whitelisted members of a class.
+     */
+    record ClassMembers(Set<Method> methods, Set<Field> fields, Set<Constructor<?>> constructors) {
+        static final ClassMembers EMPTY = new ClassMembers(Set.of(), Set.of(), Set.of());
+    }
+
+    /**
+     * Validates the given groovy-whitelist file and writes its index. Used at build time.
+     * <p/>
+     * Arguments are the groovy-whitelist file, the index file to write and, optionally, a comma separated list of class name
+     * prefixes whose classes may be missing from the build classpath (e.g. classes only provided by some gateways).
+     * Declarations of those classes are indexed without being validated when their class cannot be found.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Usage: WhitelistIndex <groovy-whitelist> <index> [optional class prefixes]");
+        }
+
+        List<String> optionalPrefixes = args.length > 2 ? Arrays.asList(args[2].split(",")) : List.of();
+        List<String> lines = Files.readAllLines(Path.of(args[0]), StandardCharsets.UTF_8);
+        List<String> errors = new ArrayList<>();
+
+        Builder builder = new Builder();
+
+        for (int i = 0; i < lines.size(); i++) {
+            String declaration = lines.get(i).trim();
+
+            if (declaration.isEmpty() || declaration.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                validate(declaration);
+            } catch (ClassNotFoundException e) {
+                if (optionalPrefixes.stream().noneMatch(prefix -> declaration.split(" ")[1].startsWith(prefix))) {
+                    errors.add("line " + (i + 1) + ": [" + declaration + "] " + e);
+                    continue;
+                }
+            } catch (Exception | LinkageError e) {
+                errors.add("line " + (i + 1) + ": [" + declaration + "] " + e);
+                continue;
+            }
+
+            builder.add(declaration);
+        }
+
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Invalid Groovy whitelist declarations:\n" + String.join("\n", errors));
+        }
+
+        try (OutputStream output = Files.newOutputStream(Path.of(args[1]))) {
+            builder.write(output);
+        }
+    }
+
+    private static void validate(String declaration) throws Exception {
+        if (declaration.startsWith(WHITELIST_METHOD_PREFIX)) {
+            SecuredResolver.parseMethod(declaration);
+        } else if (declaration.startsWith(WHITELIST_FIELD_PREFIX)) {
+            SecuredResolver.parseField(declaration);
+        } else if (declaration.startsWith(WHITELIST_CONSTRUCTOR_PREFIX)) {
+            SecuredResolver.parseConstructor(declaration);
+        } else if (declaration.startsWith(WHITELIST_ANNOTATION_PREFIX)) {
+            SecuredResolver.parseAnnotation(declaration);
+        } else if (declaration.startsWith(WHITELIST_CLASS_PREFIX)) {
+            // Unlike at runtime, a class whose members reference a missing class is an error.
+            Class<?> clazz = ClassUtils.forName(declaration.split(" ")[1], SecuredResolver.class.getClassLoader());
+            clazz.getDeclaredMethods();
+            clazz.getDeclaredFields();
+            clazz.getDeclaredConstructors();
+        } else {
+            throw new IllegalArgumentException("Unknown declaration type");
+        }
+    }
+
+    /**
+     * Groups the declarations by class and writes them in the index format.
+     */
+    static final class Builder {
+
+        private final List<String> annotations = new ArrayList<>();
+        private final Map<String, ClassEntry> classes = new LinkedHashMap<>();
+
+        void add(String declaration) {
+            String[] split = declaration.split(" ");
+
+            if (declaration.startsWith(WHITELIST_ANNOTATION_PREFIX)) {
+                annotations.add(split[1]);
+                return;
+            }
+
+            ClassEntry entry = classes.computeIfAbsent(split[1], name -> new ClassEntry());
+
+            if (declaration.startsWith(WHITELIST_CLASS_PREFIX)) {
+                entry.allMembers = true;
+            } else if (declaration.startsWith(WHITELIST_METHOD_PREFIX)) {
+                entry.members.add(new Member(METHOD, split[2], Arrays.copyOfRange(split, 3, split.length)));
+            } else if (declaration.startsWith(WHITELIST_FIELD_PREFIX)) {
+                entry.members.add(new Member(FIELD, split[2], new String[0]));
+            } else if (declaration.startsWith(WHITELIST_CONSTRUCTOR_PREFIX)) {
+                entry.members.add(new Member(CONSTRUCTOR, "<init>", Arrays.copyOfRange(split, 2, split.length)));
+            }
+        }
+
+        void write(OutputStream output) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream declarations = new DataOutputStream(body);
+            Map<String, Integer> offsets = new LinkedHashMap<>();
+
+            for (Map.Entry<String, ClassEntry> clazz : classes.entrySet()) {
+                offsets.put(clazz.getKey(), declarations.size());
+                declarations.writeByte(clazz.getValue().allMembers ? ALL_MEMBERS : 0);
+                declarations.writeInt(clazz.getValue().members.size());
+
+                for (Member member : clazz.getValue().members) {
+                    declarations.writeByte(member.kind());
+                    declarations.writeUTF(member.name());
+                    declarations.writeByte(member.parameters().length);
+
+                    for (String parameter : member.parameters()) {
+                        declarations.writeUTF(parameter);
+                    }
+                }
+            }
+
+            DataOutputStream out = new DataOutputStream(output);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeInt(annotations.size());
+
+            for (String annotation : annotations) {
+                out.writeUTF(annotation);
+            }
+
+            out.writeInt(offsets.size());
+
+            for (Map.Entry<String, Integer> offset : offsets.entrySet()) {
+                out.writeUTF(offset.getKey());
+                out.writeInt(offset.getValue());
+            }
+
+            out.writeInt(body.size());
+            body.writeTo(out);
+            out.flush();
+        }
+
+        private static final class ClassEntry {
+
+            private boolean allMembers;
+            private final List<Member> members = new ArrayList<>();
+        }
+
+        private record Member(byte kind, String name, String[] parameters) {}
+    }
+}
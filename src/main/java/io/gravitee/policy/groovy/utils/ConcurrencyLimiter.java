@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.utils;
+
+import io.reactivex.rxjava3.core.Maybe;
+import io.reactivex.rxjava3.core.Scheduler;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Non-blocking admission control limiting the number of concurrent executions of a policy.
+ * <p/>
+ * Up to <code>maxConcurrentExecutions</code> executions run at the same time. Executions above the limit wait, without
+ * holding any thread, in a FIFO queue of at most <code>maxQueuedExecutions</code> entries and are started as soon as
+ * running executions complete. When the queue is full, executions fail immediately with a
+ * {@link ConcurrencyLimitReachedException}.
+ * <p/>
+ * A slot is given back as soon as the running execution terminates or is disposed, before its result is propagated
+ * downstream. Queued executions are then resumed on the <code>resumeScheduler</code> rather than on the thread
+ * completing the previous execution, so that the downstream processing of one request never runs the next one.
+ *
+ * @author GraviteeSource Team
+ */
+public class ConcurrencyLimiter {
+
+    private final int maxConcurrentExecutions;
+    private final int maxQueuedExecutions;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+    private final LongAdder rejected = new LongAdder();
+    private final Scheduler resumeScheduler;
+
+    /**
+     * @param maxConcurrentExecutions the maximum number of concurrent executions, <code>0</code> or less for no limit.
+     * @param maxQueuedExecutions the maximum number of executions waiting for a running one to complete.
+     */
+    public ConcurrencyLimiter(int maxConcurrentExecutions, int maxQueuedExecutions) {
+        this(maxConcurrentExecutions, maxQueuedExecutions, Schedulers.computation());
+    }
+
+    /**
+     * @param maxConcurrentExecutions the maximum number of concurrent executions, <code>0</code> or less for no limit.
+     * @param maxQueuedExecutions the maximum number of executions waiting for a running one to complete.
+     * @param resumeScheduler the scheduler queued executions are started on once a slot is available.
+     */
+    public ConcurrencyLimiter(int maxConcurrentExecutions, int maxQueuedExecutions, Scheduler resumeScheduler) {
+        this.maxConcurrentExecutions = maxConcurrentExecutions;
+        this.maxQueuedExecutions = Math.max(0, maxQueuedExecutions);
+        this.resumeScheduler = resumeScheduler;
+    }
+
+    /**
+     * Limits the concurrent subscriptions to the given source. A subscription counts as running from the moment it is
+     * admitted until the source terminates or is disposed.
+     *
+     * @param source the execution to limit.
+     *
+     * @return the limited execution.
+     */
+    public <T> Maybe<T> limit(Maybe<T> source) {
+        if (maxConcurrentExecutions <= 0) {
+            return source;
+        }
+
+        return Maybe.create(emitter -> {
+            final AtomicBoolean released = new AtomicBoolean();
+            final Runnable releaseOnce = () -> {
+                if (released.compareAndSet(false, true)) {
+                    release();
+                }
+            };
+            final Runnable start = () -> {
+                if (emitter.isDisposed()) {
+                    // Cancelled while being resumed, the slot is not used.
+                    releaseOnce.run();
+                    return;
+                }
+
+                Maybe<T> execution = source.doOnTerminate(releaseOnce::run).doOnDispose(releaseOnce::run);
+                emitter.setDisposable(execution.subscribe(emitter::onSuccess, emitter::tryOnError, emitter::onComplete));
+            };
+
+            if (tryAcquire()) {
+                start.run();
+                return;
+            }
+
+            if (queued.incrementAndGet() > maxQueuedExecutions) {
+                queued.decrementAndGet();
+                rejected.increment();
+                emitter.onError(
+                    new ConcurrencyLimitReachedException(
+                        "Maximum number of concurrent script executions reached (" + maxConcurrentExecutions + ")"
+                    )
+                );
+                return;
+            }
+
+            final Waiter waiter = new Waiter(start);
+            waiters.offer(waiter);
+            emitter.setCancellable(() -> {
+                if (waiter.compareAndSet(false, true)) {
+                    waiters.remove(waiter);
+                    queued.decrementAndGet();
+                }
+            });
+
+            // A running execution may have completed meanwhile.
+            drain();
+        });
+    }
+
+    public int getInFlightCount() {
+        return inFlight.get();
+    }
+
+    public int getQueuedCount() {
+        return queued.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    private boolean tryAcquire() {
+        int current;
+        do {
+            current = inFlight.get();
+            if (current >= maxConcurrentExecutions) {
+                return false;
+            }
+        } while (!inFlight.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    private void release() {
+        inFlight.decrementAndGet();
+        drain();
+    }
+
+    private void drain() {
+        while (!waiters.isEmpty() && tryAcquire()) {
+            Waiter waiter = waiters.poll();
+
+            if (waiter == null || !waiter.compareAndSet(false, true)) {
+                // Nobody to start (or the waiter has been cancelled), give the slot back.
+                inFlight.decrementAndGet();
+                if (waiter == null) {
+                    return;
+                }
+                continue;
+            }
+
+            queued.decrementAndGet();
+            resumeScheduler.scheduleDirect(waiter.start);
+        }
+    }
+
+    /**
+     * Execution waiting for a slot, claimed either to be started or to be cancelled.
+     */
+    private static final class Waiter extends AtomicBoolean {
+
+        private final Runnable start;
+
+        private Waiter(Runnable start) {
+            this.start = start;
+        }
+    }
+}
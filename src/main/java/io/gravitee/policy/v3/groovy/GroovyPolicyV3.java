@@ -33,10 +33,14 @@ import io.gravitee.policy.api.annotations.OnResponse;
 import io.gravitee.policy.api.annotations.OnResponseContent;
 import io.gravitee.policy.groovy.PolicyResult;
 import io.gravitee.policy.groovy.configuration.GroovyPolicyConfiguration;
+import io.gravitee.policy.groovy.sandbox.CompiledScript;
 import io.gravitee.policy.groovy.sandbox.SecuredGroovyShell;
 import io.gravitee.policy.groovy.utils.AttributesBasedExecutionContext;
 import io.gravitee.policy.v3.groovy.model.ContentAwareRequest;
 import io.gravitee.policy.v3.groovy.model.ContentAwareResponse;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 import lombok.EqualsAndHashCode;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
@@ -62,14 +66,30 @@ public class GroovyPolicyV3 {
         private static final SecuredGroovyShell INSTANCE = new SecuredGroovyShell(true);
     }
 
+    /**
+     * Handles on the configured scripts, prepared once so that executions don't have to hash the script source to find
+     * its compiled class.
+     */
+    private final Map<String, CompiledScript> compiledScripts;
+
     public GroovyPolicyV3(GroovyPolicyConfiguration configuration) {
         this.configuration = configuration;
+        this.compiledScripts = configuration
+            .getScripts()
+            .stream()
+            .distinct()
+            .collect(Collectors.toUnmodifiableMap(Function.identity(), groovyShell()::prepare));
     }
 
     protected SecuredGroovyShell groovyShell() {
         return configuration.isStrictExecutionTimeout() ? StrictGroovyShellHolder.INSTANCE : GROOVY_SHELL;
     }
 
+    protected CompiledScript compiledScript(String script) {
+        CompiledScript compiledScript = compiledScripts.get(script);
+        return compiledScript != null ? compiledScript : groovyShell().prepare(script);
+    }
+
     @OnRequest
     public void onRequest(Request request, Response response, ExecutionContext executionContext, PolicyChain policyChain) {
         executeScript(request, response, executionContext, policyChain, configuration.getOnRequestScript());
@@ -204,7 +224,7 @@ public class GroovyPolicyV3 {
                 binding.setVariable(RESULT_VARIABLE_NAME, new PolicyResult());
 
                 // And run script
-                groovyShell().evaluate(script, binding);
+                groovyShell().evaluate(compiledScript(script), binding);
 
                 PolicyResult result = (PolicyResult) binding.getVariable(RESULT_VARIABLE_NAME);
 
@@ -243,7 +263,7 @@ public class GroovyPolicyV3 {
         binding.setVariable(RESULT_VARIABLE_NAME, new PolicyResult());
 
         // And run script
-        String content = groovyShell().evaluate(script, binding);
+        String content = groovyShell().evaluate(compiledScript(script), binding);
 
         PolicyResult result = (PolicyResult) binding.getVariable(RESULT_VARIABLE_NAME);
         if (result.getState() == PolicyResult.State.FAILURE) {
@@ -103,9 +103,42 @@ public class SandboxTransformer extends CompilationCustomizer {
      * Intercept attribute access for both read "z=x.@y" and write "x.@y=z"
      */
     boolean interceptAttribute=true;
+    /**
+     * Type of the per-call-site objects method calls are routed through, or null to call {@link Checker} directly.
+     *
+     * @see #SandboxTransformer(Class)
+     */
+    private final ClassNode callSiteType;
+    private final MethodNode callSiteMethod;
 
     public SandboxTransformer() {
         super(CompilePhase.CANONICALIZATION);
+        this.callSiteType = null;
+        this.callSiteMethod = null;
+    }
+
+    /**
+     * Routes every {@code lhs.foo(...)} call through an instance of the given type, created once per call site and held
+     * in a synthetic static field of the class declaring the call. This lets the call site remember what it has already
+     * been through, e.g. to skip the interception of a call it has seen approved for the very same types.
+     *
+     * <p>
+     * The type must be public, have a public no-arg constructor and a public method with the same signature as
+     * {@link Checker#checkedCall(Object, boolean, boolean, Object, Object[])}, named {@value #CALL_SITE_METHOD}.
+     */
+    public SandboxTransformer(Class<?> callSiteType) {
+        super(CompilePhase.CANONICALIZATION);
+        this.callSiteType = ClassHelper.make(callSiteType);
+        this.callSiteMethod = this.callSiteType.getMethod(CALL_SITE_METHOD, new Parameter[] {
+            new Parameter(ClassHelper.OBJECT_TYPE, "receiver"),
+            new Parameter(ClassHelper.boolean_TYPE, "safe"),
+            new Parameter(ClassHelper.boolean_TYPE, "spread"),
+            new Parameter(ClassHelper.OBJECT_TYPE, "method"),
+            new Parameter(ClassHelper.OBJECT_TYPE.makeArray(), "args")
+        });
+        if (callSiteMethod == null || !callSiteMethod.isPublic() || callSiteMethod.isStatic()) {
+            throw new IllegalArgumentException(callSiteType + " has no public " + CALL_SITE_METHOD + " method");
+        }
     }
 
     @Override
@@ -127,6 +160,12 @@ public class SandboxTransformer extends CompilationCustomizer {
         for (FieldNode f : classNode.getFields()) {
             visitor.visitField(f);
         }
+        if (visitor instanceof VisitorImpl) {
+            // Added last so that their initializers are not intercepted.
+            for (FieldNode f : ((VisitorImpl) visitor).callSites) {
+                classNode.addField(f);
+            }
+        }
     }
 
     /**
@@ -349,6 +388,11 @@ public class SandboxTransformer extends CompilationCustomizer {
          */
         private ClassNode clazz;
 
+        /**
+         * Call site fields to add to {@link #clazz} once it has been visited.
+         */
+        private final List<FieldNode> callSites = new ArrayList<>();
+
         VisitorImpl(SourceUnit sourceUnit, ClassNode clazz) {
             this.sourceUnit = sourceUnit;
             this.clazz = clazz;
@@ -398,6 +442,28 @@ public class SandboxTransformer extends CompilationCustomizer {
             return new StaticMethodCallExpression(checkerClass,name,
                 new ArgumentListExpression(arguments));
         }
+
+        /**
+         * Same as {@code makeCheckedCall("checkedCall", arguments)}, going through a dedicated call site object when
+         * {@link #callSiteType} is set.
+         */
+        Expression makeCheckedCallThroughSite(Expression... arguments) {
+            // Interfaces can't hold the field, and there's no class to hold it without one.
+            if (callSiteType == null || clazz == null || clazz.isInterface()) {
+                return makeCheckedCall("checkedCall", arguments);
+            }
+
+            FieldNode site = new FieldNode("$sandboxCallSite" + callSites.size(),
+                    Modifier.PUBLIC | Modifier.STATIC | Modifier.FINAL | ACC_SYNTHETIC,
+                    callSiteType, clazz, new ConstructorCallExpression(callSiteType, EMPTY_ARGUMENTS));
+            callSites.add(site);
+
+            MethodCallExpression call = new MethodCallExpression(new FieldExpression(site), CALL_SITE_METHOD,
+                    new ArgumentListExpression(arguments));
+            call.setImplicitThis(false);
+            call.setMethodTarget(callSiteMethod);
+            return call;
+        }
     
         @Override
         public Expression transform(Expression exp) {
@@ -441,6 +507,10 @@ public class SandboxTransformer extends CompilationCustomizer {
                 }
             }
 
+            if (exp.getNodeMetaData(VERIFIED) != null) {
+                return transformVerified(exp);
+            }
+
             if (exp instanceof MethodCallExpression && interceptMethodCall) {
                 // lhs.foo(arg1,arg2) => checkedCall(lhs,"foo",arg1,arg2)
                 // lhs+rhs => lhs.plus(rhs)
@@ -463,7 +533,7 @@ public class SandboxTransformer extends CompilationCustomizer {
                     }
                     return makeCheckedCall("checkedSuperCall", new ClassExpression(clazz), objExp, arg1, arg2);
                 } else {
-                    return makeCheckedCall("checkedCall",
+                    return makeCheckedCallThroughSite(
                             objExp,
                             boolExp(call.isSafe()),
                             boolExp(call.isSpreadSafe()),
@@ -800,6 +870,38 @@ public class SandboxTransformer extends CompilationCustomizer {
             }
         }
 
+        /**
+         * Compiles an expression marked as {@link #VERIFIED} without intercepting it: a variable is left as is, while a method
+         * call or a property read becomes a direct call to its target method.
+         */
+        private Expression transformVerified(Expression exp) {
+            Object verified = exp.getNodeMetaData(VERIFIED);
+            if (!(verified instanceof MethodNode)) {
+                return exp;
+            }
+
+            MethodNode target = (MethodNode) verified;
+            Expression objExp;
+            List<Expression> args = new ArrayList<>();
+            if (exp instanceof MethodCallExpression) {
+                MethodCallExpression call = (MethodCallExpression) exp;
+                objExp = call.getObjectExpression();
+                for (Expression arg : ((TupleExpression) call.getArguments()).getExpressions()) {
+                    args.add(transform(arg));
+                }
+            } else {
+                objExp = ((PropertyExpression) exp).getObjectExpression();
+            }
+
+            Expression receiver = target.isStatic()
+                    ? new ClassExpression(target.getDeclaringClass())
+                    : new CastExpression(target.getDeclaringClass(), transform(objExp));
+            MethodCallExpression call = new MethodCallExpression(receiver, target.getName(), new ArgumentListExpression(args));
+            call.setImplicitThis(false);
+            call.setMethodTarget(target);
+            return call;
+        }
+
         /**
          * Decorates an {@link ASTNode} by copying source location from another node.
          */
@@ -895,6 +997,20 @@ public class SandboxTransformer extends CompilationCustomizer {
     static final Token ASSIGNMENT_OP = new Token(Types.ASSIGN, "=", -1, -1);
 
     static final ClassNode checkerClass = new ClassNode(Checker.class);
+
+    static final String CALL_SITE_METHOD = "checkedCall";
+
+    /**
+     * Node metadata key marking an expression that has been verified at compile time, so that it is compiled without
+     * interception. The value is the {@link MethodNode} to call directly for a method call or a property read, or the
+     * {@link ClassNode} of a variable that can be read as is.
+     */
+    public static final String VERIFIED = SandboxTransformer.class.getName() + ".VERIFIED";
+
+    /**
+     * {@code Opcodes.ACC_SYNTHETIC}, so that call site fields are not mistaken for properties of the class.
+     */
+    private static final int ACC_SYNTHETIC = 0x1000;
     static final ClassNode ScriptBytecodeAdapterClass = new ClassNode(ScriptBytecodeAdapter.class);
 
     /**
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.benchmark;
+
+import groovy.lang.Binding;
+import io.gravitee.gateway.api.http.HttpHeaders;
+import io.gravitee.policy.groovy.model.BindableHttpHeaders;
+import io.gravitee.policy.groovy.sandbox.CompiledScript;
+import io.gravitee.policy.groovy.sandbox.SecuredGroovyShell;
+import io.gravitee.policy.groovy.sandbox.SecuredResolver;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the evaluation time of typical scripts when the calls approved by the sandbox are invoked through their cached
+ * method handle (<code>directDispatch=true</code>) or through the Groovy dispatch (<code>directDispatch=false</code>).
+ *
+ * Run it with:
+ * <pre>
+ *     mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.gravitee.policy.groovy.benchmark.DirectDispatchBenchmark
+ * </pre>
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DirectDispatchBenchmark {
+
+    private static final String HEADER_ACCESS_SCRIPT =
+        "headers.containsKey('X-Gravitee-Api') ? headers.get('X-Gravitee-Api').get(0) : headers.get('X-Gravitee-Request-Id').get(0)";
+
+    private static final String STRING_MANIPULATION_SCRIPT =
+        "value.toUpperCase().substring(0, 8).replace('GRAVITEE', 'gio').concat(value.substring(8).trim())";
+
+    private static final String COLLECTION_ITERATION_SCRIPT =
+        "int total = 0; for (int i = 0; i < items.size(); i++) { total += items.get(i).length() }; return total";
+
+    @Param({ "true", "false" })
+    public String directDispatch;
+
+    private SecuredGroovyShell shell;
+    private CompiledScript headerAccess;
+    private CompiledScript stringManipulation;
+    private CompiledScript collectionIteration;
+    private BindableHttpHeaders headers;
+    private List<String> items;
+
+    @Setup
+    public void setUp() {
+        // Read once by the interceptor when the shell is created.
+        System.setProperty("gravitee.policy.groovy.sandbox.direct.dispatch", directDispatch);
+        SecuredResolver.initialize(null);
+        shell = new SecuredGroovyShell();
+        headerAccess = shell.compile(HEADER_ACCESS_SCRIPT);
+        stringManipulation = shell.compile(STRING_MANIPULATION_SCRIPT);
+        collectionIteration = shell.compile(COLLECTION_ITERATION_SCRIPT);
+
+        HttpHeaders httpHeaders = HttpHeaders.create();
+        httpHeaders.set("X-Gravitee-Request-Id", "5e8f1d3c");
+        headers = new BindableHttpHeaders(httpHeaders);
+
+        items = new ArrayList<>();
+        for (int i = 0; i < 32; i++) {
+            items.add("item-" + i);
+        }
+    }
+
+    @Benchmark
+    public Object headerAccess() {
+        Binding binding = new Binding();
+        binding.setVariable("headers", headers);
+        return shell.evaluate(headerAccess, binding);
+    }
+
+    @Benchmark
+    public Object stringManipulation() {
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee-policy-groovy  ");
+        return shell.evaluate(stringManipulation, binding);
+    }
+
+    @Benchmark
+    public Object collectionIteration() {
+        Binding binding = new Binding();
+        binding.setVariable("items", items);
+        return shell.evaluate(collectionIteration, binding);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(DirectDispatchBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.benchmark;
+
+import groovy.lang.Binding;
+import io.gravitee.policy.groovy.sandbox.CompiledScript;
+import io.gravitee.policy.groovy.sandbox.ScriptExecutionPool;
+import io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.Backend;
+import io.gravitee.policy.groovy.sandbox.SecuredGroovyShell;
+import io.gravitee.policy.groovy.sandbox.SecuredResolver;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Maybe;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the throughput of the {@link ScriptExecutionPool} backends when {@value #CONCURRENT_REQUESTS} requests evaluate
+ * a script at the same time. The <code>blockingMillis</code> parameter simulates scripts waiting on a slow resource after
+ * their evaluation, which is where virtual threads are expected to shine. The virtual backend requires Java 21 and falls
+ * back to the pool backend otherwise.
+ *
+ * Run it with:
+ * <pre>
+ *     mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.gravitee.policy.groovy.benchmark.ScriptExecutionBackendBenchmark
+ * </pre>
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ScriptExecutionBackendBenchmark {
+
+    static final int CONCURRENT_REQUESTS = 10_000;
+
+    @Param({ "POOL", "VIRTUAL", "IO" })
+    public String backend;
+
+    @Param({ "0", "1" })
+    public long blockingMillis;
+
+    private ScriptExecutionPool pool;
+    private SecuredGroovyShell shell;
+    private CompiledScript script;
+
+    @Setup
+    public void setUp() {
+        SecuredResolver.initialize(null);
+        int poolSize = Math.max(8, 2 * Runtime.getRuntime().availableProcessors());
+        // The queue is large enough to never reject: the benchmark compares throughput, not load shedding.
+        pool = new ScriptExecutionPool(Backend.valueOf(backend), poolSize, CONCURRENT_REQUESTS);
+        shell = new SecuredGroovyShell();
+        script = shell.compile("value.toUpperCase() + '-' + value.length()");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CONCURRENT_REQUESTS)
+    public void concurrentRequests() {
+        List<Maybe<Object>> evaluations = new ArrayList<>(CONCURRENT_REQUESTS);
+
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            evaluations.add(pool.submit(this::evaluate));
+        }
+
+        Flowable.fromIterable(evaluations).flatMapMaybe(evaluation -> evaluation, false, CONCURRENT_REQUESTS).blockingSubscribe();
+    }
+
+    private Object evaluate() throws InterruptedException {
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+        Object result = shell.evaluate(script, binding);
+
+        if (blockingMillis > 0) {
+            Thread.sleep(blockingMillis);
+        }
+
+        return result;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder().include(ScriptExecutionBackendBenchmark.class.getSimpleName()).build();
+        new Runner(options).run();
+    }
+}
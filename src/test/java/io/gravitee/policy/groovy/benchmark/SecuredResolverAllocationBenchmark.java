@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.benchmark;
+
+import io.gravitee.policy.groovy.sandbox.SecuredResolver;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the allocations of the {@link SecuredResolver} decisions once they are cached, for each kind of interception.
+ * The <code>gc.alloc.rate.norm</code> metric reported by the GC profiler is expected to be 0 B/op for every benchmark.
+ *
+ * Run it with:
+ * <pre>
+ *     mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=io.gravitee.policy.groovy.benchmark.SecuredResolverAllocationBenchmark
+ * </pre>
+ *
+ * @author GraviteeSource Team
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SecuredResolverAllocationBenchmark {
+
+    private static final String RECEIVER = "gravitee";
+    private static final Object[] METHOD_ARGS = { "gra", 1 };
+    private static final Object[] CONSTRUCTOR_ARGS = { "gravitee" };
+    private static final Long TIME = 0L;
+
+    private final Date date = new Date();
+
+    private SecuredResolver resolver;
+
+    @Setup
+    public void setUp() {
+        SecuredResolver.initialize(null);
+        resolver = SecuredResolver.getInstance();
+
+        // Warm the decision cache so the benchmark only measures the hot path.
+        methodCall();
+        constructorCall();
+        getProperty();
+        setProperty();
+    }
+
+    @Benchmark
+    public boolean methodCall() {
+        return resolver.isMethodAllowed(RECEIVER, "startsWith", METHOD_ARGS);
+    }
+
+    @Benchmark
+    public boolean constructorCall() {
+        return resolver.isConstructorAllowed(String.class, CONSTRUCTOR_ARGS);
+    }
+
+    @Benchmark
+    public boolean getProperty() {
+        return resolver.isGetPropertyAllowed(RECEIVER, "bytes");
+    }
+
+    @Benchmark
+    public boolean setProperty() {
+        return resolver.isSetPropertyAllowed(date, "time", TIME);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+            .include(SecuredResolverAllocationBenchmark.class.getSimpleName())
+            .addProfiler(GCProfiler.class)
+            .build();
+        new Runner(options).run();
+    }
+}
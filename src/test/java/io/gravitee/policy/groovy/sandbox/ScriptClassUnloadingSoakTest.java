@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.CODE_CACHE_SIZE_PROPERTY;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import groovy.lang.Binding;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Redeploys many distinct scripts through a shell whose cache can only hold a few of them, and checks that the classes of the
+ * evicted scripts are unloaded instead of piling up in Metaspace.
+ * <p>
+ * Too slow for the unit tests, only run with the {@code soak-tests} profile: {@code mvn test -Psoak-tests}.
+ *
+ * @author GraviteeSource Team
+ */
+public class ScriptClassUnloadingSoakTest {
+
+    private static final int WARM_UP_SCRIPTS = 1_000;
+    private static final int SCRIPTS = 10_000;
+
+    /** Each script generates two classes, 10k scripts which are never unloaded use more than 60 MB. */
+    private static final long MAX_METASPACE_GROWTH_BYTES = 16L * 1024 * 1024;
+
+    @BeforeClass
+    public static void beforeClass() {
+        SecuredResolver.initialize(null);
+    }
+
+    @After
+    public void clearCacheSizeProperty() {
+        System.clearProperty(CODE_CACHE_SIZE_PROPERTY);
+    }
+
+    @Test
+    public void metaspaceIsBoundedWhenScriptsAreRedeployed() {
+        MemoryPoolMXBean metaspace = ManagementFactory.getMemoryPoolMXBeans()
+            .stream()
+            .filter(pool -> pool.getName().equals("Metaspace"))
+            .findFirst()
+            .orElse(null);
+        assumeTrue(metaspace != null);
+
+        System.setProperty(CODE_CACHE_SIZE_PROPERTY, "1");
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+
+        // Fill the cache and load the classes used by the compiler and the sandbox before measuring.
+        redeploy(shell, 0, WARM_UP_SCRIPTS);
+        long baseline = usedAfterGc(metaspace);
+
+        redeploy(shell, WARM_UP_SCRIPTS, SCRIPTS);
+
+        assertThat(shell.getCodeCacheStats().evictionCount()).isGreaterThan(SCRIPTS / 2);
+        assertThat(usedAfterGc(metaspace) - baseline).isLessThan(MAX_METASPACE_GROWTH_BYTES);
+    }
+
+    private static void redeploy(SecuredGroovyShell shell, int from, int to) {
+        for (int i = from; i < to; i++) {
+            // As for a redeployed API, the handle on the previous script is discarded.
+            CompiledScript script = shell.prepare("def values = [" + i + ", 2]; values.collect { it * 2 }.sum()");
+            assertThat((Object) shell.evaluate(script, new Binding())).isEqualTo(i * 2 + 4);
+        }
+    }
+
+    private static long usedAfterGc(MemoryPoolMXBean metaspace) {
+        System.gc();
+        System.gc();
+        return metaspace.getUsage().getUsed();
+    }
+}
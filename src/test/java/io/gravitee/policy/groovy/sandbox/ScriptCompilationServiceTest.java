@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import static io.gravitee.policy.groovy.sandbox.ScriptCompilationService.POOL_SIZE_PROPERTY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.policy.groovy.sandbox.ScriptCompilationService.Priority;
+import io.reactivex.rxjava3.observers.TestObserver;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.codehaus.groovy.control.CompilationFailedException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ScriptCompilationServiceTest {
+
+    private final ScriptCompilationService service = new ScriptCompilationService(1);
+    private final SecuredGroovyShell shell = new SecuredGroovyShell();
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Before
+    public void init() {
+        SecuredResolver.initialize(null);
+    }
+
+    @After
+    public void clearProperties() {
+        System.clearProperty(POOL_SIZE_PROPERTY);
+        release.countDown();
+    }
+
+    @Test
+    public void resolvePoolSizeReturnsProcessorsByDefault() {
+        assertThat(ScriptCompilationService.resolvePoolSize()).isEqualTo(Runtime.getRuntime().availableProcessors());
+    }
+
+    @Test
+    public void resolvePoolSizeAcceptsValidValue() {
+        System.setProperty(POOL_SIZE_PROPERTY, "3");
+        assertThat(ScriptCompilationService.resolvePoolSize()).isEqualTo(3);
+    }
+
+    @Test
+    public void compileCompilesScript() throws InterruptedException {
+        CompiledScript script = shell.prepare("1 + 1");
+
+        service.compile(script, Priority.DEPLOY).test().await().assertComplete();
+
+        assertThat(script.isCompiled()).isTrue();
+        assertThat(service.getCompiledCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void compileFailsWithCompilationError() throws InterruptedException {
+        service.compile(shell.prepare("1 +"), Priority.DEPLOY).test().await().assertError(CompilationFailedException.class);
+    }
+
+    @Test
+    public void compileDeduplicatesSameScript() throws InterruptedException {
+        occupyThread();
+        CompiledScript first = shell.prepare("1 + 1");
+        CompiledScript second = shell.prepare("1 + 1");
+
+        TestObserver<Void> firstCompilation = service.compile(first, Priority.DEPLOY).test();
+        TestObserver<Void> secondCompilation = service.compile(second, Priority.DEPLOY).test();
+
+        assertThat(service.getQueueDepth()).isEqualTo(1);
+        assertThat(service.getDeduplicatedCount()).isEqualTo(1);
+
+        release.countDown();
+        firstCompilation.await().assertComplete();
+        secondCompilation.await().assertComplete();
+
+        assertThat(first.isCompiled()).isTrue();
+        assertThat(second.isCompiled()).isTrue();
+        // The blocking compilation and the shared one.
+        assertThat(service.getCompiledCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void compileRunsRequestedScriptsFirst() throws InterruptedException {
+        occupyThread();
+        Set<String> compilationOrder = Collections.synchronizedSet(new LinkedHashSet<>());
+        List<TestObserver<Void>> compilations = new ArrayList<>();
+
+        compilations.add(service.compile(recording("1", compilationOrder), Priority.DEPLOY).test());
+        compilations.add(service.compile(recording("2", compilationOrder), Priority.DEPLOY).test());
+        compilations.add(service.compile(recording("3", compilationOrder), Priority.REQUEST).test());
+        // A request needing a script waiting to be precompiled moves it ahead.
+        compilations.add(service.compile(recording("2", compilationOrder), Priority.REQUEST).test());
+
+        assertThat(service.getQueueDepth()).isEqualTo(3);
+
+        release.countDown();
+        for (TestObserver<Void> compilation : compilations) {
+            compilation.await().assertComplete();
+        }
+
+        assertThat(compilationOrder).containsExactly("2", "3", "1");
+        assertThat(service.getPromotedCount()).isEqualTo(1);
+    }
+
+    private void occupyThread() throws InterruptedException {
+        CompiledScript blocking = new CompiledScript(shell, "blocking", "0", 0L) {
+            @Override
+            public CompiledScript compile() {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.compile();
+            }
+        };
+
+        service.compile(blocking, Priority.DEPLOY).test();
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private CompiledScript recording(String source, Set<String> compilationOrder) {
+        return new CompiledScript(shell, source, source, 0L) {
+            @Override
+            public CompiledScript compile() {
+                compilationOrder.add(getSource());
+                return super.compile();
+            }
+        };
+    }
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import static io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.BACKEND_PROPERTY;
+import static io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.POOL_SIZE_PROPERTY;
+import static io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.QUEUE_SIZE_DEFAULT;
+import static io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.QUEUE_SIZE_PROPERTY;
+import static io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.TENANT_WEIGHTS_PROPERTY;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import groovy.lang.Binding;
+import io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.Backend;
+import io.gravitee.policy.groovy.sandbox.ScriptExecutionPool.ScriptTask;
+import io.reactivex.rxjava3.observers.TestObserver;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class ScriptExecutionPoolTest {
+
+    @After
+    public void clearProperties() {
+        System.clearProperty(POOL_SIZE_PROPERTY);
+        System.clearProperty(QUEUE_SIZE_PROPERTY);
+        System.clearProperty(BACKEND_PROPERTY);
+        System.clearProperty(TENANT_WEIGHTS_PROPERTY);
+    }
+
+    @Test
+    public void resolvePoolSizeReturnsAtLeastTheMinimumByDefault() {
+        assertThat(ScriptExecutionPool.resolvePoolSize()).isGreaterThanOrEqualTo(ScriptExecutionPool.POOL_SIZE_MIN_DEFAULT);
+    }
+
+    @Test
+    public void resolvePoolSizeAcceptsValidValue() {
+        System.setProperty(POOL_SIZE_PROPERTY, "3");
+        assertThat(ScriptExecutionPool.resolvePoolSize()).isEqualTo(3);
+    }
+
+    @Test
+    public void resolveQueueSizeReturnsDefaultWhenPropertyNotSet() {
+        assertThat(ScriptExecutionPool.resolveQueueSize()).isEqualTo(QUEUE_SIZE_DEFAULT);
+    }
+
+    @Test
+    public void resolveBackendReturnsPoolByDefault() {
+        assertThat(ScriptExecutionPool.resolveBackend()).isEqualTo(Backend.POOL);
+    }
+
+    @Test
+    public void resolveBackendIsCaseInsensitive() {
+        System.setProperty(BACKEND_PROPERTY, "Virtual");
+        assertThat(ScriptExecutionPool.resolveBackend()).isEqualTo(Backend.VIRTUAL);
+    }
+
+    @Test
+    public void resolveBackendFallsBackToPoolWhenUnknown() {
+        System.setProperty(BACKEND_PROPERTY, "unknown");
+        assertThat(ScriptExecutionPool.resolveBackend()).isEqualTo(Backend.POOL);
+    }
+
+    @Test
+    public void virtualBackendEvaluatesScriptsOrFallsBackToPool() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.VIRTUAL, 1, 1);
+        int javaVersion = Runtime.version().feature();
+
+        pool.submit(() -> 42).test().await().assertValue(42);
+
+        assertThat(pool.getBackend()).isEqualTo(javaVersion >= 21 ? Backend.VIRTUAL : Backend.POOL);
+    }
+
+    @Test
+    public void ioBackendEvaluatesScripts() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.IO, 1, 1);
+
+        pool.submit(() -> 42).test().await().assertValue(42);
+    }
+
+    @Test
+    public void shellEvaluatesScriptsOnVirtualBackend() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.VIRTUAL, 1, 1);
+        SecuredResolver.initialize(null);
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+        CompiledScript compiledScript = shell.compile("value * 2");
+        Binding binding = new Binding();
+        binding.setVariable("value", 21);
+
+        // The interceptor is registered and unregistered on the thread running the evaluation.
+        pool.submit(() -> shell.evaluate(compiledScript, binding)).test().await().assertValue(42);
+        pool
+            .submit(() -> shell.evaluate("java.lang.Runtime.getRuntime()", new Binding()))
+            .test()
+            .await()
+            .assertError(SecurityException.class);
+    }
+
+    @Test
+    public void submitEmitsTaskResult() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 1);
+
+        pool.submit(() -> 42).test().await().assertValue(42);
+
+        assertThat(pool.getExecutedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void submitCompletesWhenTaskReturnsNull() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 1);
+
+        pool.submit(() -> null).test().await().assertComplete().assertNoValues();
+    }
+
+    @Test
+    public void submitIsRejectedWhenPoolIsSaturated() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        TestObserver<Boolean> running = pool
+            .submit(() -> {
+                started.countDown();
+                return release.await(10, TimeUnit.SECONDS);
+            })
+            .test();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        TestObserver<Integer> queued = pool.submit(() -> 1).test();
+        assertThat(pool.getQueueDepth()).isEqualTo(1);
+
+        pool.submit(() -> 2).test().assertError(ScriptExecutionRejectedException.class);
+        assertThat(pool.getRejectedCount()).isEqualTo(1);
+
+        release.countDown();
+        running.await().assertValue(true);
+        queued.await().assertValue(1);
+        assertThat(pool.getExecutedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void resolveTenantWeightsIgnoresInvalidEntries() {
+        System.setProperty(TENANT_WEIGHTS_PROPERTY, "api-1=4, api-2 = 2,api-3,api-4=x");
+        assertThat(ScriptExecutionPool.resolveTenantWeights()).isEqualTo(Map.of("api-1", 4, "api-2", 2));
+    }
+
+    @Test
+    public void fairShareQueueServesTenantsInWeightedRoundRobin() {
+        ExecutionTenant heavy = new ExecutionTenant("heavy", 1);
+        ExecutionTenant light = new ExecutionTenant("light", 2);
+        FairShareQueue queue = new FairShareQueue(6, new ExecutionTenant(ScriptExecutionPool.DEFAULT_TENANT, 1));
+
+        ScriptTask h1 = new ScriptTask(heavy, () -> {});
+        ScriptTask h2 = new ScriptTask(heavy, () -> {});
+        ScriptTask h3 = new ScriptTask(heavy, () -> {});
+        ScriptTask l1 = new ScriptTask(light, () -> {});
+        ScriptTask l2 = new ScriptTask(light, () -> {});
+        ScriptTask l3 = new ScriptTask(light, () -> {});
+
+        for (ScriptTask task : new ScriptTask[] { h1, h2, h3, l1, l2, l3 }) {
+            assertThat(queue.offer(task)).isTrue();
+        }
+        assertThat(queue.offer(new ScriptTask(light, () -> {}))).isFalse();
+
+        assertThat(queue.poll()).isSameAs(h1);
+        assertThat(queue.poll()).isSameAs(l1);
+        assertThat(queue.poll()).isSameAs(l2);
+        assertThat(queue.poll()).isSameAs(h2);
+        assertThat(queue.poll()).isSameAs(l3);
+        assertThat(queue.poll()).isSameAs(h3);
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    public void fairShareQueueEvictsFromLargestLaneWhenFull() {
+        ExecutionTenant flooding = new ExecutionTenant("flooding", 1);
+        ExecutionTenant other = new ExecutionTenant("other", 1);
+        FairShareQueue queue = new FairShareQueue(3, new ExecutionTenant(ScriptExecutionPool.DEFAULT_TENANT, 1));
+        AtomicInteger rejections = new AtomicInteger();
+
+        ScriptTask f1 = new ScriptTask(flooding, () -> {}, rejections::incrementAndGet);
+        ScriptTask f2 = new ScriptTask(flooding, () -> {}, rejections::incrementAndGet);
+        ScriptTask f3 = new ScriptTask(flooding, () -> {}, rejections::incrementAndGet);
+        ScriptTask o1 = new ScriptTask(other, () -> {});
+
+        for (ScriptTask task : new ScriptTask[] { f1, f2, f3 }) {
+            assertThat(queue.offer(task)).isTrue();
+        }
+        assertThat(queue.offer(new ScriptTask(flooding, () -> {}))).isFalse();
+
+        assertThat(queue.offer(o1)).isTrue();
+        assertThat(rejections.get()).isEqualTo(1);
+        // Both tenants now have their share of the queue.
+        assertThat(queue.offer(new ScriptTask(other, () -> {}))).isFalse();
+
+        assertThat(queue.poll()).isSameAs(f1);
+        assertThat(queue.poll()).isSameAs(o1);
+        assertThat(queue.poll()).isSameAs(f2);
+        assertThat(queue.poll()).isNull();
+    }
+
+    @Test
+    public void floodingTenantDoesNotPreventOtherTenantsFromBeingQueued() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 2);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        TestObserver<Boolean> running = pool
+            .submit(
+                "api-1",
+                () -> {
+                    started.countDown();
+                    return release.await(10, TimeUnit.SECONDS);
+                }
+            )
+            .test();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        TestObserver<Integer> flooding1 = pool.submit("api-1", () -> 1).test();
+        TestObserver<Integer> flooding2 = pool.submit("api-1", () -> 2).test();
+        pool.submit("api-1", () -> 3).test().assertError(ScriptExecutionRejectedException.class);
+
+        TestObserver<Integer> other = pool.submit("api-2", () -> 4).test();
+        flooding2.assertError(ScriptExecutionRejectedException.class);
+        assertThat(pool.getRejectedCount()).isEqualTo(2);
+
+        release.countDown();
+        running.await().assertValue(true);
+        flooding1.await().assertValue(1);
+        other.await().assertValue(4);
+    }
+
+    @Test
+    public void tenantCountsQueuedAndInFlightEvaluations() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        TestObserver<Boolean> running = pool
+            .submit(
+                "api-1",
+                () -> {
+                    started.countDown();
+                    return release.await(10, TimeUnit.SECONDS);
+                }
+            )
+            .test();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        TestObserver<Integer> queued = pool.submit("api-2", () -> 1).test();
+        assertThat(pool.getTenant("api-1").getInFlightCount()).isEqualTo(1);
+        assertThat(pool.getTenant("api-2").getQueuedCount()).isEqualTo(1);
+
+        queued.dispose();
+        assertThat(pool.getTenant("api-2").getQueuedCount()).isZero();
+
+        release.countDown();
+        running.await().assertValue(true);
+        assertThat(pool.getExecutedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void tenantsWithoutEvaluationsAreReleased() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 10);
+
+        // As for APIs deployed then undeployed.
+        for (int i = 0; i < 100; i++) {
+            pool.submit("api-" + i, () -> 1).test().await().assertValue(1);
+        }
+
+        for (int i = 0; i < 50 && pool.getTenants().size() > 1; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        // Only the default tenant, held by the queue of the pool.
+        assertThat(pool.getTenants()).extracting(ExecutionTenant::getId).containsExactly(ScriptExecutionPool.DEFAULT_TENANT);
+    }
+
+    @Test
+    public void disposingQueuedEvaluationRemovesItFromTheQueue() throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 1);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        TestObserver<Boolean> running = pool
+            .submit(() -> {
+                started.countDown();
+                return release.await(10, TimeUnit.SECONDS);
+            })
+            .test();
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+
+        pool.submit(() -> 1).test().dispose();
+        assertThat(pool.getQueueDepth()).isZero();
+
+        // The place of the cancelled evaluation is available again.
+        TestObserver<Integer> queued = pool.submit(() -> 2).test();
+        queued.assertNoErrors();
+
+        release.countDown();
+        running.await().assertValue(true);
+        queued.await().assertValue(2);
+    }
+
+    @Test
+    public void disposingRunningEvaluationStopsTheScript() throws InterruptedException {
+        SecuredResolver.initialize(null);
+        assertDisposingStopsTheScript(new SecuredGroovyShell());
+    }
+
+    @Test
+    public void disposingRunningEvaluationStopsTheStaticScript() throws InterruptedException {
+        SecuredResolver.initialize(null);
+        assertDisposingStopsTheScript(new SecuredGroovyShell(false, null, true));
+    }
+
+    private static void assertDisposingStopsTheScript(SecuredGroovyShell shell) throws InterruptedException {
+        ScriptExecutionPool pool = new ScriptExecutionPool(Backend.POOL, 1, 1);
+        CompiledScript compiledScript = shell.compile("while (true) { }");
+        CountDownLatch stopped = new CountDownLatch(1);
+        AtomicReference<Exception> failure = new AtomicReference<>();
+
+        TestObserver<Object> evaluation = pool
+            .submit(() -> {
+                try {
+                    return shell.evaluate(compiledScript, new Binding());
+                } catch (Exception e) {
+                    failure.set(e);
+                    throw e;
+                } finally {
+                    stopped.countDown();
+                }
+            })
+            .test();
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getActiveCount() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        evaluation.dispose();
+
+        // Well before the execution timeout.
+        assertThat(stopped.await(2, TimeUnit.SECONDS)).isTrue();
+        assertThat(failure.get()).isInstanceOf(InterruptedException.class);
+    }
+}
@@ -15,6 +15,10 @@
  */
 package io.gravitee.policy.groovy.sandbox;
 
+import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.CODE_CACHE_DEFAULT_SIZE_MB;
+import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.CODE_CACHE_SIZE_PROPERTY;
+import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.INLINE_BUDGET_DEFAULT_MICROS;
+import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.INLINE_BUDGET_PROPERTY;
 import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.SCRIPT_TIMEOUT_DEFAULT_SECONDS;
 import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.SCRIPT_TIMEOUT_MAX_SECONDS;
 import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.SCRIPT_TIMEOUT_MIN_SECONDS;
@@ -22,14 +26,37 @@ import static io.gravitee.policy.groovy.sandbox.SecuredGroovyShell.SCRIPT_TIMEOU
 import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_LIST_KEY;
 import static io.gravitee.policy.groovy.sandbox.SecuredResolver.WHITELIST_MODE_KEY;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
 import groovy.lang.Binding;
+import io.gravitee.policy.groovy.configuration.ExecutionMode;
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import org.codehaus.groovy.control.MultipleCompilationErrorsException;
+import org.codehaus.groovy.runtime.InvokerHelper;
 import org.junit.After;
+import org.junit.Assume;
 import org.junit.Before;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.kohsuke.groovy.sandbox.GroovyInterceptor;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.mock.env.MockEnvironment;
 
@@ -39,6 +66,9 @@ import org.springframework.mock.env.MockEnvironment;
  */
 public class SecuredGroovyShellTest {
 
+    @Rule
+    public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     private final SecuredGroovyShell securedGroovyShell = new SecuredGroovyShell();
 
     @BeforeClass
@@ -55,6 +85,10 @@ public class SecuredGroovyShellTest {
     @After
     public void clearTimeoutProperty() {
         System.clearProperty(SCRIPT_TIMEOUT_PROPERTY);
+        System.clearProperty(INLINE_BUDGET_PROPERTY);
+        System.clearProperty(CODE_CACHE_SIZE_PROPERTY);
+        System.clearProperty(BytecodeCache.DIRECTORY_PROPERTY);
+        TrustedScriptVerifier.destroy();
     }
 
     @Test
@@ -103,6 +137,282 @@ public class SecuredGroovyShellTest {
         assertThat(result).isEqualTo(2);
     }
 
+    @Test
+    public void preparedScriptIsCompiledLazily() {
+        CompiledScript compiledScript = securedGroovyShell.prepare("1 + 1");
+        assertThat(compiledScript.isCompiled()).isFalse();
+
+        Object result = securedGroovyShell.evaluate(compiledScript, new Binding());
+
+        assertThat(result).isEqualTo(2);
+        assertThat(compiledScript.isCompiled()).isTrue();
+    }
+
+    @Test
+    public void compiledScriptCanBeEvaluatedSeveralTimes() {
+        CompiledScript compiledScript = securedGroovyShell.compile("value * 2");
+        assertThat(compiledScript.isCompiled()).isTrue();
+
+        Binding first = new Binding();
+        first.setVariable("value", 21);
+        Binding second = new Binding();
+        second.setVariable("value", 4);
+
+        assertThat((Object) securedGroovyShell.evaluate(compiledScript, first)).isEqualTo(42);
+        assertThat((Object) securedGroovyShell.evaluate(compiledScript, second)).isEqualTo(8);
+    }
+
+    @Test(expected = MultipleCompilationErrorsException.class)
+    public void compileFailsWithInvalidScript() {
+        securedGroovyShell.compile("def invalid = ");
+    }
+
+    @Test
+    public void compilationFailureIsCachedAndRethrown() {
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+        String script = "def invalid = ";
+
+        Throwable first = catchThrowable(() -> shell.compile(script));
+        Throwable second = catchThrowable(() -> shell.evaluate(script, new Binding()));
+
+        assertThat(first).isInstanceOf(MultipleCompilationErrorsException.class);
+        assertThat(second).isSameAs(first);
+        assertThat(shell.getCompilationFailureCacheHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void resolveInlineBudgetReturnsDefaultWhenPropertyNotSet() {
+        assertThat(SecuredGroovyShell.resolveInlineBudgetMicros()).isEqualTo(INLINE_BUDGET_DEFAULT_MICROS);
+    }
+
+    @Test
+    public void resolveInlineBudgetAcceptsValidValue() {
+        System.setProperty(INLINE_BUDGET_PROPERTY, "200");
+        assertThat(SecuredGroovyShell.resolveInlineBudgetMicros()).isEqualTo(200L);
+    }
+
+    @Test
+    public void resolveCodeCacheSizeReturnsDefaultWhenPropertyNotSet() {
+        assertThat(SecuredGroovyShell.resolveCodeCacheSizeMegabytes()).isEqualTo(CODE_CACHE_DEFAULT_SIZE_MB);
+    }
+
+    @Test
+    public void compiledScriptIsServedFromCache() {
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+
+        shell.compile("1 + 1");
+        shell.compile("1 + 1");
+
+        assertThat(shell.getCodeCacheStats().missCount()).isEqualTo(1);
+        assertThat(shell.getCodeCacheStats().hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void compiledScriptsAreEvictedWhenCacheIsFull() {
+        System.setProperty(CODE_CACHE_SIZE_PROPERTY, "1");
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+
+        for (int i = 0; i < 200; i++) {
+            assertThat((Object) shell.evaluate(i + " + 1", new Binding())).isEqualTo(i + 1);
+        }
+
+        assertThat(shell.getCodeCacheStats().evictionCount()).isPositive();
+    }
+
+    @Test
+    public void evictedScriptIsNotKeptLoadedByItsHandle() throws Exception {
+        System.setProperty(CODE_CACHE_SIZE_PROPERTY, "1");
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+        CompiledScript compiledScript = shell.compile("1 + 1");
+        WeakReference<Class<?>> compiled = new WeakReference<>(compiledScript.scriptClass());
+
+        for (int i = 0; i < 500; i++) {
+            shell.compile(i + " + 2");
+        }
+
+        for (int i = 0; i < 50 && compiled.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertThat(compiled.get()).isNull();
+        assertThat(compiledScript.isCompiled()).isFalse();
+        assertThat((Object) shell.evaluate(compiledScript, new Binding())).isEqualTo(2);
+    }
+
+    @Test
+    public void evictedScriptClassLoaderIsCollected() throws Exception {
+        System.setProperty(CODE_CACHE_SIZE_PROPERTY, "1");
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+        // The closure is defined by the same loader as the script, which is only collected once all its classes are unloaded.
+        CompiledScript compiledScript = shell.compile("def twice = { it * 2 }; twice(21)");
+        WeakReference<ClassLoader> loader = new WeakReference<>(compiledScript.scriptClass().getClassLoader());
+        compiledScript = null;
+
+        for (int i = 0; i < 500; i++) {
+            shell.compile(i + " + 2");
+        }
+
+        for (int i = 0; i < 50 && loader.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+
+        assertThat(shell.getCodeCacheStats().evictionCount()).isPositive();
+        assertThat(loader.get()).isNull();
+    }
+
+    @Test
+    public void compiledScriptIsLoadedFromDirectory() throws Exception {
+        File directory = cacheDirectory();
+        System.setProperty(BytecodeCache.DIRECTORY_PROPERTY, directory.getPath());
+        String script = "def twice = { it * 2 }; twice(21)";
+
+        Class<?> compiled = new SecuredGroovyShell().getOrCreate("script", script);
+        assertThat(entries(directory)).hasSize(1);
+
+        Class<?> loaded = new SecuredGroovyShell().getOrCreate("script", script);
+        assertThat(loaded.getClassLoader()).isInstanceOf(ScriptClassLoader.StoredScriptLoader.class);
+        assertThat(loaded).isNotSameAs(compiled);
+        assertThat(InvokerHelper.createScript(loaded, new Binding()).run()).isEqualTo(42);
+    }
+
+    @Test
+    public void compiledScriptOfAnotherVariantIsNotLoadedFromDirectory() throws Exception {
+        File directory = cacheDirectory();
+        System.setProperty(BytecodeCache.DIRECTORY_PROPERTY, directory.getPath());
+
+        new SecuredGroovyShell(false).getOrCreate("script", "1 + 1");
+        Class<?> compiled = new SecuredGroovyShell(true).getOrCreate("script", "1 + 1");
+
+        assertThat(compiled.getClassLoader()).isNotInstanceOf(ScriptClassLoader.StoredScriptLoader.class);
+        assertThat(entries(directory)).hasSize(2);
+    }
+
+    @Test
+    public void corruptedCompiledScriptIsCompiledAgain() throws Exception {
+        File directory = cacheDirectory();
+        System.setProperty(BytecodeCache.DIRECTORY_PROPERTY, directory.getPath());
+        new SecuredGroovyShell().getOrCreate("script", "1 + 1");
+
+        Path entry = entries(directory)[0].toPath();
+        byte[] content = Files.readAllBytes(entry);
+        content[content.length / 2] ^= 1;
+        Files.write(entry, content);
+
+        Class<?> compiled = new SecuredGroovyShell().getOrCreate("script", "1 + 1");
+        assertThat(compiled.getClassLoader()).isNotInstanceOf(ScriptClassLoader.StoredScriptLoader.class);
+        assertThat(InvokerHelper.createScript(compiled, new Binding()).run()).isEqualTo(2);
+
+        // The corrupted entry has been replaced.
+        Class<?> loaded = new SecuredGroovyShell().getOrCreate("script", "1 + 1");
+        assertThat(loaded.getClassLoader()).isInstanceOf(ScriptClassLoader.StoredScriptLoader.class);
+    }
+
+    @Test
+    public void compiledScriptOfAnotherWhitelistIsCompiledAgain() throws Exception {
+        File directory = cacheDirectory();
+        System.setProperty(BytecodeCache.DIRECTORY_PROPERTY, directory.getPath());
+        new SecuredGroovyShell().getOrCreate("script", "1 + 1");
+
+        ConfigurableEnvironment environment = new MockEnvironment()
+            .withProperty(WHITELIST_LIST_KEY + "[0]", "method java.lang.String length");
+
+        SecuredResolver.destroy();
+        SecuredResolver.initialize(environment);
+
+        Class<?> compiled = new SecuredGroovyShell().getOrCreate("script", "1 + 1");
+        assertThat(compiled.getClassLoader()).isNotInstanceOf(ScriptClassLoader.StoredScriptLoader.class);
+        // Both entries are kept for gateways sharing the directory with the previous whitelist.
+        assertThat(entries(directory)).hasSize(2);
+    }
+
+    @Test
+    public void directoryWritableByOtherUsersIsNotUsed() throws Exception {
+        File directory = temporaryFolder.newFolder();
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Files.setPosixFilePermissions(directory.toPath(), PosixFilePermissions.fromString("rwxrwxrwx"));
+        System.setProperty(BytecodeCache.DIRECTORY_PROPERTY, directory.getPath());
+
+        new SecuredGroovyShell().getOrCreate("script", "1 + 1");
+
+        assertThat(directory.list()).isEmpty();
+    }
+
+    @Test
+    public void inlineScriptIsEvaluatedOnCallingThreadOnceCompiled() {
+        CompiledScript compiledScript = securedGroovyShell.compile("1 + 1");
+
+        // No await: the evaluation completes synchronously on the subscribing thread.
+        securedGroovyShell.evaluateRx(compiledScript, new Binding(), ExecutionMode.INLINE).test().assertValue(2);
+    }
+
+    @Test
+    public void inlineScriptIsCompiledOffTheCallingThread() throws InterruptedException {
+        CompiledScript compiledScript = securedGroovyShell.prepare("1 + 1");
+
+        securedGroovyShell
+            .evaluateRx(compiledScript, new Binding(), ExecutionMode.INLINE)
+            .test()
+            .await()
+            .assertValue(2);
+
+        assertThat(compiledScript.isCompiled()).isTrue();
+    }
+
+    @Test
+    public void executionProfileGoesInlineOnceP99IsBelowHalfTheThreshold() {
+        ExecutionProfile profile = new ExecutionProfile("test", 1000);
+        assertThat(profile.isInline()).isFalse();
+
+        recordWindow(profile, 600);
+        assertThat(profile.isInline()).isFalse();
+
+        // The slow executions weigh less and less as they are halved at each window.
+        for (int i = 0; i < 10; i++) {
+            recordWindow(profile, 100);
+        }
+        assertThat(profile.isInline()).isTrue();
+        assertThat(profile.getP99Nanos()).isLessThanOrEqualTo(500);
+    }
+
+    @Test
+    public void executionProfileIsOffloadedOnceP99ExceedsTheThreshold() {
+        ExecutionProfile profile = new ExecutionProfile("test", 1000);
+        recordWindow(profile, 100);
+        assertThat(profile.isInline()).isTrue();
+
+        recordWindow(profile, 5000);
+        assertThat(profile.isInline()).isFalse();
+    }
+
+    @Test
+    public void executionProfileIsOffloadedImmediatelyOnAVerySlowExecution() {
+        ExecutionProfile profile = new ExecutionProfile("test", 1000);
+        recordWindow(profile, 100);
+        assertThat(profile.isInline()).isTrue();
+
+        profile.record(1000L * ExecutionProfile.DEMOTION_FACTOR + 1);
+        assertThat(profile.isInline()).isFalse();
+    }
+
+    @Test
+    public void executionProfileStaysOffloadedOnceBlockingOperationDetected() {
+        CompiledScript compiledScript = securedGroovyShell.prepare("sleep(1)");
+
+        catchThrowable(() -> securedGroovyShell.evaluate(compiledScript, new Binding()));
+        assertThat(compiledScript.profile().isBlocking()).isTrue();
+
+        recordWindow(compiledScript.profile(), 1);
+        assertThat(compiledScript.profile().isInline()).isFalse();
+    }
+
+    private static void recordWindow(ExecutionProfile profile, long elapsedNanos) {
+        for (int i = 0; i < ExecutionProfile.WINDOW_SIZE; i++) {
+            profile.record(elapsedNanos);
+        }
+    }
+
     private static final String SCRIPT_DECLARING_INTERFACE =
         "interface Operators { Map OPERATORS = [eq: '='] }                 \n" +
         "class Criteria implements Operators { String fieldName }          \n" +
@@ -925,6 +1235,340 @@ public class SecuredGroovyShellTest {
         securedGroovyShell.evaluate(script, new Binding());
     }
 
+    @Test(expected = SecurityException.class)
+    public void setPropertyNotAllowedAfterGetPropertyAllowed() {
+        String script = "def value = 'gravitee'\n" + "value.bytes\n" + "value.bytes = new byte[0]";
+
+        securedGroovyShell.evaluate(script, new Binding());
+    }
+
+    @Test
+    public void cachedDecisionsDependOnArgumentTypes() {
+        SecuredResolver resolver = SecuredResolver.getInstance();
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(resolver.isMethodAllowed("gravitee", "startsWith", "gra")).isTrue();
+            assertThat(resolver.isMethodAllowed("gravitee", "startsWith", new Object())).isFalse();
+            assertThat(resolver.isConstructorAllowed(BigDecimal.class, "5.4")).isTrue();
+            assertThat(resolver.isConstructorAllowed(BigDecimal.class, new Object())).isFalse();
+        }
+    }
+
+    @Test
+    public void deniedPropertyDecisionsAreCached() {
+        SecuredResolver resolver = SecuredResolver.getInstance();
+        assertThat(resolver.isGetPropertyAllowed(resolver, "instance")).isFalse();
+        assertThat(resolver.isSetPropertyAllowed(resolver, "instance", "value")).isFalse();
+
+        long hits = resolver.getDecisionCacheHitCount();
+        long misses = resolver.getDecisionCacheMissCount();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(resolver.isGetPropertyAllowed(resolver, "instance")).isFalse();
+            assertThat(resolver.isSetPropertyAllowed(resolver, "instance", "value")).isFalse();
+        }
+
+        assertThat(resolver.getDecisionCacheHitCount()).isEqualTo(hits + 20);
+        assertThat(resolver.getDecisionCacheMissCount()).isEqualTo(misses);
+    }
+
+    @Test
+    public void decisionTableIsBounded() {
+        DecisionTable table = new DecisionTable();
+
+        for (int i = 0; i < DecisionTable.MAX_NAMES * 2; i++) {
+            table.store("property" + i, new Class<?>[0], false);
+        }
+
+        assertThat(table.size()).isEqualTo(DecisionTable.MAX_NAMES);
+        assertThat(table.lookup("property0", new Object[0])).isFalse();
+        assertThat(table.lookup("property" + DecisionTable.MAX_NAMES, new Object[0])).isNull();
+    }
+
+    @Test
+    public void everyInterceptedOperationStopsACancelledScript() {
+        SecuredInterceptor interceptor = new SecuredInterceptor();
+        int[] array = { 1 };
+
+        Thread.currentThread().interrupt();
+        try {
+            assertThat(catchThrowable(() -> interceptor.onGetArray(null, array, 0))).isInstanceOf(InterruptedException.class);
+            assertThat(Thread.currentThread().isInterrupted()).isTrue();
+            assertThat(catchThrowable(() -> interceptor.onSetArray(null, array, 0, 2))).isInstanceOf(InterruptedException.class);
+            assertThat(catchThrowable(() -> interceptor.onGetAttribute(null, "gravitee", "value"))).isInstanceOf(
+                InterruptedException.class
+            );
+            assertThat(catchThrowable(() -> interceptor.onSuperCall(null, Object.class, "gravitee", "toString"))).isInstanceOf(
+                InterruptedException.class
+            );
+        } finally {
+            Thread.interrupted();
+        }
+
+        assertThat(array[0]).isEqualTo(1);
+    }
+
+    @Test
+    public void directDispatchOnlyAppliesToMonomorphicJavaMethods() {
+        SecuredResolver resolver = SecuredResolver.getInstance();
+
+        assertThat(resolver.resolveMethod("gravitee", "substring", new Object[] { 1, 3 }).handle(false)).isNotNull();
+        assertThat(resolver.resolveMethod(Integer.class, "valueOf", new Object[] { "42" }).handle(true)).isNotNull();
+        // Default groovy method.
+        assertThat(resolver.resolveMethod("gravitee", "capitalize", new Object[0]).handle(false)).isNull();
+        // Instance method called on the class itself.
+        assertThat(resolver.resolveMethod(Integer.class, "valueOf", new Object[] { "42" }).handle(false)).isNull();
+        // Null argument, which shares the decision of an Object argument.
+        assertThat(resolver.resolveMethod("gravitee", "equals", new Object[] { null }).handle(false)).isNull();
+        assertThat(DirectDispatch.accepts(new Object[] { null })).isFalse();
+    }
+
+    @Test
+    public void directDispatchBehavesLikeGroovyDispatch() {
+        String script =
+            "def value = 'gravitee'; def name = \"${value}\"; " +
+            "[value.substring(1, 3), value.startsWith(name), Integer.valueOf('42'), value.concat(name), [1, 2].get(1)]";
+
+        for (int i = 0; i < 2; i++) {
+            assertThat((Object) securedGroovyShell.evaluate(script, new Binding())).isEqualTo(
+                List.of("ra", true, 42, "graviteegravitee", 2)
+            );
+        }
+
+        Throwable thrown = catchThrowable(() -> securedGroovyShell.evaluate("'gravitee'.substring(10, 12)", new Binding()));
+        assertThat(thrown).isInstanceOf(StringIndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void monomorphicCallSiteSkipsResolverOnceApproved() {
+        SecuredResolver resolver = SecuredResolver.getInstance();
+        CompiledScript compiledScript = securedGroovyShell.compile("value.toUpperCase()");
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+
+        assertThat((Object) securedGroovyShell.evaluate(compiledScript, binding)).isEqualTo("GRAVITEE");
+        long decisions = resolver.getDecisionCacheHitCount() + resolver.getDecisionCacheMissCount();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat((Object) securedGroovyShell.evaluate(compiledScript, binding)).isEqualTo("GRAVITEE");
+        }
+        assertThat(resolver.getDecisionCacheHitCount() + resolver.getDecisionCacheMissCount()).isEqualTo(decisions);
+
+        // Another receiver type goes through the resolver again.
+        binding.setVariable("value", new StringBuilder("gravitee"));
+        Throwable thrown = catchThrowable(() -> securedGroovyShell.evaluate(compiledScript, binding));
+        assertThat(thrown).isInstanceOf(SecurityException.class);
+    }
+
+    @Test
+    public void monomorphicCallSiteIsNotUsedUnderAnotherInterceptor() {
+        CompiledScript compiledScript = securedGroovyShell.compile("value.toUpperCase()");
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+        assertThat((Object) securedGroovyShell.evaluate(compiledScript, binding)).isEqualTo("GRAVITEE");
+
+        List<String> calls = new ArrayList<>();
+        GroovyInterceptor recording = new GroovyInterceptor() {
+            @Override
+            public Object onMethodCall(Invoker invoker, Object receiver, String method, Object... args) throws Throwable {
+                calls.add(method);
+                return super.onMethodCall(invoker, receiver, method, args);
+            }
+        };
+
+        recording.register();
+        try {
+            assertThat(InvokerHelper.createScript(compiledScript.scriptClass(), binding).run()).isEqualTo("GRAVITEE");
+        } finally {
+            recording.unregister();
+        }
+
+        assertThat(calls).containsExactly("toUpperCase");
+    }
+
+    @Test(expected = SecurityException.class)
+    public void callSiteIsInvalidatedWhenWhitelistIsReloaded() {
+        CompiledScript compiledScript = securedGroovyShell.compile("value.toUpperCase()");
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+        assertThat((Object) securedGroovyShell.evaluate(compiledScript, binding)).isEqualTo("GRAVITEE");
+
+        ConfigurableEnvironment environment = new MockEnvironment()
+            .withProperty(WHITELIST_MODE_KEY, "replace")
+            .withProperty(WHITELIST_LIST_KEY + "[0]", "method java.lang.Math max int int");
+
+        SecuredResolver.destroy();
+        SecuredResolver.initialize(environment);
+
+        securedGroovyShell.evaluate(compiledScript, binding);
+    }
+
+    @Test
+    public void typedScriptVerifiesCallsAtCompileTime() {
+        SecuredGroovyShell typedShell = new SecuredGroovyShell(false, Map.of("value", String.class));
+        SecuredResolver resolver = SecuredResolver.getInstance();
+        CompiledScript compiledScript = typedShell.compile("value.toUpperCase().substring(1)");
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+
+        long decisions = resolver.getDecisionCacheHitCount() + resolver.getDecisionCacheMissCount();
+        assertThat((Object) typedShell.evaluate(compiledScript, binding)).isEqualTo("RAVITEE");
+        assertThat(resolver.getDecisionCacheHitCount() + resolver.getDecisionCacheMissCount()).isEqualTo(decisions);
+    }
+
+    @Test
+    public void typedScriptKeepsDynamicCallsOnReassignedVariables() {
+        SecuredGroovyShell typedShell = new SecuredGroovyShell(false, Map.of("value", String.class));
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+
+        assertThat((Object) typedShell.evaluate("value = 'io'; value.toUpperCase()", binding)).isEqualTo("IO");
+    }
+
+    @Test(expected = SecurityException.class)
+    public void typedScriptIsRecompiledWhenWhitelistIsReloaded() {
+        SecuredGroovyShell typedShell = new SecuredGroovyShell(false, Map.of("value", String.class));
+        CompiledScript compiledScript = typedShell.compile("value.toUpperCase()");
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+        assertThat((Object) typedShell.evaluate(compiledScript, binding)).isEqualTo("GRAVITEE");
+
+        ConfigurableEnvironment environment = new MockEnvironment()
+            .withProperty(WHITELIST_MODE_KEY, "replace")
+            .withProperty(WHITELIST_LIST_KEY + "[0]", "method java.lang.Math max int int");
+
+        SecuredResolver.destroy();
+        SecuredResolver.initialize(environment);
+
+        typedShell.evaluate(compiledScript, binding);
+    }
+
+    @Test
+    public void staticScriptEvaluatesAllowedCalls() {
+        SecuredGroovyShell staticShell = new SecuredGroovyShell(false, Map.of("value", String.class), true);
+        Binding binding = new Binding();
+        binding.setVariable("value", "gravitee");
+
+        Object result = staticShell.evaluate("value.toUpperCase().split('A').collect { it.length() }.sum()", binding);
+
+        assertThat(result).isEqualTo(7);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void staticScriptRejectsNotAllowedCallAtCompileTime() throws Exception {
+        SecuredGroovyShell staticShell = new SecuredGroovyShell(false, Map.of("value", String.class), true);
+
+        try {
+            staticShell.compile("value.getClass().getClassLoader()");
+        } catch (MultipleCompilationErrorsException e) {
+            throw e.getErrorCollector().getException(0);
+        }
+    }
+
+    @Test(expected = SecurityException.class)
+    public void staticScriptRejectsConversionToClass() throws Exception {
+        SecuredGroovyShell staticShell = new SecuredGroovyShell(false, null, true);
+
+        try {
+            staticShell.compile("File file = ['test.txt']");
+        } catch (MultipleCompilationErrorsException e) {
+            throw e.getErrorCollector().getException(0);
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void staticScriptIsInterruptedByTimedInterrupt() {
+        System.setProperty(SCRIPT_TIMEOUT_PROPERTY, "1");
+        SecuredGroovyShell staticShell = new SecuredGroovyShell(false, null, true);
+
+        // Only the code of the timeout instrumentation is exempted from the whitelist: the field setter generated for @Field is checked.
+        staticShell.evaluate("@groovy.transform.Field int step = 1\nint total = 0\nwhile (true) { total += step }", new Binding());
+    }
+
+    @Test
+    public void staticScriptCallingBlockingOperationIsNotRunInline() {
+        SecuredResolver.destroy();
+        SecuredResolver.initialize(new MockEnvironment().withProperty(WHITELIST_LIST_KEY + "[0]", "method java.lang.Thread sleep long"));
+        SecuredGroovyShell staticShell = new SecuredGroovyShell(false, null, true);
+
+        assertThat(staticShell.compile("Thread.sleep(1L)\n1").profile().isBlocking()).isTrue();
+        assertThat(staticShell.compile("1 + 1").profile().isBlocking()).isFalse();
+    }
+
+    @Test(expected = SecurityException.class)
+    public void staticScriptRejectsCoercionToAbstractClass() throws Exception {
+        SecuredGroovyShell staticShell = new SecuredGroovyShell(false, null, true);
+
+        try {
+            // The proxy would run the constructor of ClassLoader, which is not whitelisted.
+            staticShell.compile("{} as ClassLoader");
+        } catch (MultipleCompilationErrorsException e) {
+            throw e.getErrorCollector().getException(0);
+        }
+    }
+
+    @Test
+    public void signedScriptIsNotIntercepted() throws Exception {
+        String script = sign(trustKey(), "Runtime.getRuntime().availableProcessors() > 0");
+
+        assertThat((Object) securedGroovyShell.evaluate(script, new Binding())).isEqualTo(true);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void tamperedSignedScriptIsIntercepted() throws Exception {
+        String script = sign(trustKey(), "1 + 1").replace("1 + 1", "Runtime.getRuntime().availableProcessors() > 0");
+
+        securedGroovyShell.evaluate(script, new Binding());
+    }
+
+    @Test
+    public void signatureIsVerifiedOncePerScript() throws Exception {
+        String script = sign(trustKey(), "1 + 1").replace("1 + 1", "2 + 2");
+
+        securedGroovyShell.prepare(script);
+        securedGroovyShell.prepare(script);
+
+        assertThat(TrustedScriptVerifier.getInstance().getVerificationStats().missCount()).isEqualTo(1);
+        assertThat(TrustedScriptVerifier.getInstance().getVerificationStats().hitCount()).isEqualTo(1);
+    }
+
+    @Test(expected = SecurityException.class)
+    public void signedScriptIsInterceptedWhenNoKeyIsTrusted() throws Exception {
+        String script = sign(KeyPairGenerator.getInstance("RSA").generateKeyPair(), "Runtime.getRuntime().availableProcessors() > 0");
+
+        securedGroovyShell.evaluate(script, new Binding());
+    }
+
+    @Test
+    public void signedScriptIsStoppedWhenItsThreadIsInterrupted() throws Exception {
+        String script = sign(trustKey(), "while (true) { /* spin */ }");
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                securedGroovyShell.evaluate(script, new Binding());
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+
+        thread.start();
+        Thread.sleep(100);
+        thread.interrupt();
+        thread.join(2000);
+
+        // Well before the execution timeout.
+        assertThat(thread.isAlive()).isFalse();
+        assertThat(failure.get()).isInstanceOf(InterruptedException.class);
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void signedScriptIsInterruptedByTimedInterrupt() throws Exception {
+        System.setProperty(SCRIPT_TIMEOUT_PROPERTY, "1");
+        SecuredGroovyShell shell = new SecuredGroovyShell();
+
+        shell.evaluate(sign(trustKey(), "while (true) { /* spin */ }"), new Binding());
+    }
+
     @Test(expected = SecurityException.class)
     public void classResourceNotAllowed() {
         String script = "def clazz = this.class.getResource(\"/groovy-whitelist\")";
@@ -981,6 +1625,22 @@ public class SecuredGroovyShellTest {
         securedGroovyShell.evaluate(script, new Binding());
     }
 
+    @Test
+    public void shouldAllowWhitelistedAnnotationByAnyName() {
+        ConfigurableEnvironment environment = new MockEnvironment()
+            .withProperty(WHITELIST_MODE_KEY, "append")
+            .withProperty(WHITELIST_LIST_KEY + "[O]", "annotation java.util.Map$Entry");
+
+        SecuredResolver.destroy();
+        SecuredResolver.initialize(environment);
+
+        SecuredResolver resolver = SecuredResolver.getInstance();
+        assertThat(resolver.isAnnotationAllowed("java.util.Map$Entry")).isTrue();
+        assertThat(resolver.isAnnotationAllowed("java.util.Map.Entry")).isTrue();
+        assertThat(resolver.isAnnotationAllowed("Entry")).isTrue();
+        assertThat(resolver.isAnnotationAllowed("java.util.Map")).isFalse();
+    }
+
     @Test(expected = SecurityException.class)
     public void shouldNotAllowMethodWhenBuiltInWhitelistHasBeenReplace() {
         ConfigurableEnvironment environment = new MockEnvironment()
@@ -1014,4 +1674,31 @@ public class SecuredGroovyShellTest {
 
         securedGroovyShell.evaluate(script, new Binding());
     }
+
+    private static KeyPair trustKey() throws Exception {
+        KeyPair keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+        TrustedScriptVerifier.initialize(
+            new MockEnvironment()
+                .withProperty(TrustedScriptVerifier.TRUSTED_KEY_KEY, Base64.getEncoder().encodeToString(keyPair.getPublic().getEncoded()))
+        );
+        return keyPair;
+    }
+
+    private static String sign(KeyPair keyPair, String script) throws Exception {
+        Signature signature = Signature.getInstance(TrustedScriptVerifier.DEFAULT_ALGORITHM);
+        signature.initSign(keyPair.getPrivate());
+        signature.update(script.getBytes(StandardCharsets.UTF_8));
+        return TrustedScriptVerifier.SIGNATURE_PREFIX + Base64.getEncoder().encodeToString(signature.sign()) + "\n" + script;
+    }
+
+    /**
+     * A directory created by the shell, so that it is not writable by other users whatever the umask.
+     */
+    private File cacheDirectory() throws Exception {
+        return new File(temporaryFolder.newFolder(), "cache");
+    }
+
+    private static File[] entries(File directory) {
+        return directory.listFiles((dir, name) -> name.endsWith(".class-cache"));
+    }
 }
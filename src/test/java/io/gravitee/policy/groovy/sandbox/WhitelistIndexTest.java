@@ -0,0 +1,98 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.sandbox;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+public class WhitelistIndexTest {
+
+    @Test
+    public void indexedMembersAreResolvedPerClass() throws Exception {
+        WhitelistIndex.Builder builder = new WhitelistIndex.Builder();
+        builder.add("method java.lang.Math abs int");
+        builder.add("field java.lang.Integer MAX_VALUE");
+        builder.add("new java.math.BigDecimal java.lang.String");
+        builder.add("class java.lang.String");
+        builder.add("annotation groovy.transform.Immutable");
+
+        WhitelistIndex index = write(builder);
+
+        assertThat(index.getAnnotations()).containsExactly("groovy.transform.Immutable");
+        assertThat(index.resolve(Math.class).methods()).containsExactly(Math.class.getDeclaredMethod("abs", int.class));
+        assertThat(index.resolve(Integer.class).fields()).containsExactly(Integer.class.getDeclaredField("MAX_VALUE"));
+        assertThat(index.resolve(BigDecimal.class).constructors()).containsExactly(BigDecimal.class.getDeclaredConstructor(String.class));
+        assertThat(index.resolve(String.class).methods()).contains(String.class.getDeclaredMethod("toUpperCase"));
+        assertThat(index.resolve(Thread.class)).isSameAs(WhitelistIndex.ClassMembers.EMPTY);
+    }
+
+    @Test
+    public void builtInWhitelistIndexIsLoaded() {
+        WhitelistIndex index = WhitelistIndex.load();
+
+        assertThat(index).isNotNull();
+        assertThat(index.resolve(Math.class).methods()).isNotEmpty();
+    }
+
+    @Test
+    public void invalidDeclarationsFailTheGeneration() throws IOException {
+        Path whitelist = Files.createTempFile("groovy-whitelist", "");
+        Path output = Files.createTempFile("groovy-whitelist", ".idx");
+        Files.write(
+            whitelist,
+            List.of("# comment", "", "method java.lang.Math abs int", "method java.lang.Math unknown", "class io.gravitee.Unknown"),
+            StandardCharsets.UTF_8
+        );
+
+        assertThatThrownBy(() -> WhitelistIndex.main(new String[] { whitelist.toString(), output.toString() }))
+            .isInstanceOf(IllegalStateException.class)
+            .hasMessageContaining("line 4: [method java.lang.Math unknown]")
+            .hasMessageContaining("line 5: [class io.gravitee.Unknown]");
+    }
+
+    @Test
+    public void optionalClassesAreIndexedWithoutValidation() throws IOException {
+        Path whitelist = Files.createTempFile("groovy-whitelist", "");
+        Path output = Files.createTempFile("groovy-whitelist", ".idx");
+        Files.write(whitelist, List.of("class io.gravitee.Unknown", "method java.lang.Math abs int"), StandardCharsets.UTF_8);
+
+        WhitelistIndex.main(new String[] { whitelist.toString(), output.toString(), "io.gravitee." });
+
+        try (InputStream input = Files.newInputStream(output)) {
+            assertThat(WhitelistIndex.read(input).resolve(Math.class).methods()).hasSize(1);
+        }
+    }
+
+    private static WhitelistIndex write(WhitelistIndex.Builder builder) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        builder.write(output);
+        return WhitelistIndex.read(new ByteArrayInputStream(output.toByteArray()));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.policy.groovy.utils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.schedulers.TestScheduler;
+import io.reactivex.rxjava3.subjects.MaybeSubject;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * @author GraviteeSource Team
+ */
+class ConcurrencyLimiterTest {
+
+    @Test
+    void should_not_limit_when_no_maximum() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(0, 0);
+        MaybeSubject<String> first = MaybeSubject.create();
+        MaybeSubject<String> second = MaybeSubject.create();
+
+        limiter.limit(first).test();
+        limiter.limit(second).test();
+
+        assertThat(first.hasObservers()).isTrue();
+        assertThat(second.hasObservers()).isTrue();
+    }
+
+    @Test
+    void should_reject_immediately_when_limit_reached_and_no_queue() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0);
+        MaybeSubject<String> running = MaybeSubject.create();
+
+        TestObserver<String> first = limiter.limit(running).test();
+        TestObserver<String> second = limiter.limit(MaybeSubject.<String>create()).test();
+
+        first.assertNotComplete();
+        second.assertError(ConcurrencyLimitReachedException.class);
+        assertThat(limiter.getInFlightCount()).isEqualTo(1);
+        assertThat(limiter.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void should_start_queued_execution_once_running_one_completes() {
+        TestScheduler scheduler = new TestScheduler();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, scheduler);
+        MaybeSubject<String> running = MaybeSubject.create();
+        MaybeSubject<String> waiting = MaybeSubject.create();
+
+        TestObserver<String> first = limiter.limit(running).test();
+        TestObserver<String> second = limiter.limit(waiting).test();
+        TestObserver<String> third = limiter.limit(MaybeSubject.<String>create()).test();
+
+        assertThat(waiting.hasObservers()).isFalse();
+        assertThat(limiter.getQueuedCount()).isEqualTo(1);
+        third.assertError(ConcurrencyLimitReachedException.class);
+
+        running.onSuccess("first");
+        first.assertValue("first");
+        assertThat(waiting.hasObservers()).isFalse();
+
+        scheduler.triggerActions();
+        assertThat(waiting.hasObservers()).isTrue();
+        assertThat(limiter.getQueuedCount()).isZero();
+
+        waiting.onSuccess("second");
+        second.assertValue("second");
+        assertThat(limiter.getInFlightCount()).isZero();
+    }
+
+    @Test
+    void should_release_slot_when_running_execution_is_disposed() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0);
+
+        limiter.limit(MaybeSubject.<String>create()).test().dispose();
+
+        assertThat(limiter.getInFlightCount()).isZero();
+        limiter.limit(MaybeSubject.<String>create()).test().assertNoErrors();
+    }
+
+    @Test
+    void should_skip_cancelled_queued_execution() {
+        TestScheduler scheduler = new TestScheduler();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 2, scheduler);
+        MaybeSubject<String> running = MaybeSubject.create();
+        MaybeSubject<String> cancelled = MaybeSubject.create();
+        MaybeSubject<String> waiting = MaybeSubject.create();
+
+        limiter.limit(running).test();
+        limiter.limit(cancelled).test().dispose();
+        limiter.limit(waiting).test();
+        assertThat(limiter.getQueuedCount()).isEqualTo(1);
+
+        running.onComplete();
+        scheduler.triggerActions();
+
+        assertThat(cancelled.hasObservers()).isFalse();
+        assertThat(waiting.hasObservers()).isTrue();
+        assertThat(limiter.getInFlightCount()).isEqualTo(1);
+    }
+
+    @Test
+    void should_release_slot_before_propagating_result_downstream() {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 0);
+        MaybeSubject<String> running = MaybeSubject.create();
+        AtomicInteger inFlightOnSuccess = new AtomicInteger(-1);
+
+        limiter.limit(running).subscribe(value -> inFlightOnSuccess.set(limiter.getInFlightCount()));
+        running.onSuccess("value");
+
+        assertThat(inFlightOnSuccess).hasValue(0);
+    }
+
+    @Test
+    void should_not_start_queued_execution_cancelled_while_being_resumed() {
+        TestScheduler scheduler = new TestScheduler();
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, scheduler);
+        MaybeSubject<String> running = MaybeSubject.create();
+        MaybeSubject<String> waiting = MaybeSubject.create();
+
+        limiter.limit(running).test();
+        TestObserver<String> second = limiter.limit(waiting).test();
+
+        running.onComplete();
+        second.dispose();
+        scheduler.triggerActions();
+
+        assertThat(waiting.hasObservers()).isFalse();
+        assertThat(limiter.getInFlightCount()).isZero();
+        assertThat(limiter.getQueuedCount()).isZero();
+    }
+}